@@ -1,11 +1,20 @@
 package es.upm;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 
 /**
  * La clase actividad contiene datos básicos como nombre, descripción, precio y duración.
  * Además de listas limitadas de recursos y comentarios.
+ * Las actividades cargadas en diferido desde un catálogo binario solo guardan nombre,
+ * precio y duración; descripción, recursos y comentarios se leen del registro cuando se
+ * piden y se copian a la actividad la primera vez que se modifican.
  * @author Sara Paloma Martínez-Tizón García, BW0100
  * @author Kai Wei Jiang Xu, BW0067
  */
@@ -34,6 +43,13 @@ public class Actividad {
     private String[] comentarios;
     private int numRecursos;
     private int numComentarios;
+    private int maxRecursos;
+    private int maxComentarios;
+    private ArrayList<ObservadorActividad> observadores;
+    private ByteBuffer registro;
+    private int posicionRegistro;
+    private boolean cachearRegistro;
+    private volatile SoftReference<Actividad> decodificada;
 
 
     /**
@@ -48,6 +64,27 @@ public class Actividad {
         this.comentarios = new String[maxComentarios];
         this.numRecursos = 0;
         this.numComentarios = 0;
+        this.maxRecursos = maxRecursos;
+        this.maxComentarios = maxComentarios;
+    }
+
+    /**
+     * Crea una actividad diferida que lee sus campos pesados de un registro binario
+     * @param nombre nombre de la actividad
+     * @param maxRecursos numero máximo de recursos asociados
+     * @param maxComentarios numero máximo de comentarios asociados
+     * @param registro buffer que contiene el registro
+     * @param posicionRegistro posición del registro en el buffer
+     * @param cachearRegistro si los campos leídos se guardan en una referencia blanda (SoftReference)
+     */
+    private Actividad(String nombre, int maxRecursos, int maxComentarios, ByteBuffer registro,
+                      int posicionRegistro, boolean cachearRegistro) {
+        this.nombre = nombre;
+        this.maxRecursos = maxRecursos;
+        this.maxComentarios = maxComentarios;
+        this.registro = registro;
+        this.posicionRegistro = posicionRegistro;
+        this.cachearRegistro = cachearRegistro;
     }
 
     /**Devuelve el atributo nombre
@@ -60,13 +97,14 @@ public class Actividad {
      * @return devuelve el atributo descripcion de la actividad
      */
     public String getDescripcion() {
-        return descripcion; }
+        return registro == null ? descripcion : completa().descripcion; }
 
     /**
      * define un nuevo valor String al atributo descripcion
      * @param descripcion valor String al que se quiere definir el atributo
      */
     public void setDescripcion(String descripcion) {
+        materializar();
         this.descripcion = descripcion; }
 
     /**
@@ -81,7 +119,11 @@ public class Actividad {
      * @param precio valor al que se quiere definir el atributo
      */
     public void setPrecio(double precio) {
-        this.precio = precio; }
+        if (Double.compare(this.precio, precio) != 0) {
+            this.precio = precio;
+            avisarObservadores();
+        }
+    }
 
     /**
      * Devuelve el atributo duracionMinutos
@@ -95,19 +137,59 @@ public class Actividad {
      * @param duracionMinutos valor int al que se quiere definir el atributo
      */
     public void setDuracionMinutos(int duracionMinutos) {
-        this.duracionMinutos = duracionMinutos; }
+        if (this.duracionMinutos != duracionMinutos) {
+            this.duracionMinutos = duracionMinutos;
+            avisarObservadores();
+        }
+    }
+
+    /**
+     * Registra un observador que recibirá aviso de los cambios de precio y duración
+     * @param observador observador que se registra
+     */
+    void registrarObservador(ObservadorActividad observador) {
+        if (observadores == null) {
+            observadores = new ArrayList<>(1);
+        }
+        observadores.add(observador);
+    }
+
+    /**
+     * Quita una aparición de un observador registrado
+     * @param observador observador que se quita
+     */
+    void quitarObservador(ObservadorActividad observador) {
+        if (observadores != null) {
+            observadores.remove(observador);
+            if (observadores.isEmpty()) {
+                observadores = null;
+            }
+        }
+    }
+
+    /**
+     * Avisa a los observadores registrados de que la actividad ha cambiado. Se recorre
+     * una copia de la lista para que un observador pueda quitarse al recibir el aviso
+     */
+    private void avisarObservadores() {
+        if (observadores != null) {
+            for (ObservadorActividad observador : observadores.toArray(new ObservadorActividad[0])) {
+                observador.actividadModificada(this);
+            }
+        }
+    }
 
     /**
      * @return logitud del atributo recursos de la actividad (int)
      */
     public int getMaxRecursos() {
-        return recursos.length; }
+        return maxRecursos; }
 
     /**
      * @return logitud del atributo comentarios de la actividad (int)
      */
     public int getMaxComentarios() {
-        return comentarios.length; }
+        return maxComentarios; }
 
     /**
      * Añade un nuevo recurso si hay espacio disponible y devuelve si se ha efectuado el proceso (0),
@@ -122,6 +204,7 @@ public class Actividad {
         if (recursosCompletos()) {
             return ERROR_RECURSOS_COMPLETOS;
         }
+        materializar();
         recursos[numRecursos] = recurso;
         numRecursos++;
         return EXITO;
@@ -140,6 +223,7 @@ public class Actividad {
         if (comentariosCompletos()) {
             return ERROR_COMENTARIOS_COMPLETOS;
         }
+        materializar();
         comentarios[numComentarios] = comentario;
         numComentarios++;
         return EXITO;
@@ -149,7 +233,7 @@ public class Actividad {
      * @return varios valores String de los comentarios 
      */
     public String[] getComentarios() {
-        return comentarios; }
+        return registro == null ? comentarios : completa().comentarios; }
 
     /**Devuelve la cantidad de recursos que tiene la activida
      * @return cantidad Valor int de numRecursos de el objeto actividad 
@@ -167,14 +251,14 @@ public class Actividad {
      * @return recursos lista de valores string recursos que posee el objet
      */
     public String[] getRecursos() {
-        return recursos; }
+        return registro == null ? recursos : completa().recursos; }
 
     /**devuelve True en caso que el numero de recursos sa igual o mayor  a la longitud (Cantidad) de recursos disponibles,
     * En caso contrario devolvera False
      * @return boleano que define si la cantidad de recursos es maxima
      */
     public boolean recursosCompletos() {
-        return numRecursos >= recursos.length;
+        return numRecursos >= maxRecursos;
     }
 
     /**devuelve True en caso que el numero de comentarios sa igual o mayor  a la longitud (Cantidad) de comentarios disponibles,
@@ -182,7 +266,7 @@ public class Actividad {
      * @return boleano que define si la cantidad de recursos es maxima
      */
     public boolean comentariosCompletos() {
-        return numComentarios >= comentarios.length;
+        return numComentarios >= maxComentarios;
     }
 
     /**
@@ -194,8 +278,10 @@ public class Actividad {
         StringBuilder sb = new StringBuilder();
         String precioFmt = Utilidades.formatearPrecio(precio);
         String duracionFmt = Utilidades.formatearDuracion(duracionMinutos);
+        String[] recursos = getRecursos();
+        String[] comentarios = getComentarios();
         sb.append("Actividad: ").append(nombre).append("\n");
-        sb.append("Descripción: ").append(descripcion).append("\n");
+        sb.append("Descripción: ").append(getDescripcion()).append("\n");
         sb.append("Precio: ").append(precioFmt).append("\n");
         sb.append("Duración: ").append(duracionFmt).append("\n");
         sb.append("Recursos:\n");
@@ -217,8 +303,10 @@ public class Actividad {
      */
     public String toRawString() {
         StringBuilder sb = new StringBuilder();
+        String[] recursos = getRecursos();
+        String[] comentarios = getComentarios();
         sb.append(nombre).append("\n");
-        sb.append(descripcion).append("\n");
+        sb.append(getDescripcion()).append("\n");
         sb.append(precio).append("\n");
         sb.append(duracionMinutos).append("\n");
         for (int i = 0; i < numRecursos; i++) {
@@ -234,14 +322,155 @@ public class Actividad {
         return sb.toString();
     }
 
+    /**
+     * Devuelve la actividad codificada como registro binario, en este orden: nombre, precio,
+     * duración, número de recursos, número de comentarios, descripción, recursos y comentarios.
+     * Los textos van precedidos de su longitud en bytes UTF-8 (-1 para null)
+     *
+     * @return bytes del registro, sin el prefijo de longitud
+     * @throws IOException si hay error al codificar
+     */
+    public byte[] toBinario() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        escribirTexto(out, nombre);
+        out.writeDouble(precio);
+        out.writeInt(duracionMinutos);
+        out.writeInt(numRecursos);
+        out.writeInt(numComentarios);
+        String[] recursos = getRecursos();
+        String[] comentarios = getComentarios();
+        escribirTexto(out, getDescripcion());
+        for (int i = 0; i < numRecursos; i++) {
+            escribirTexto(out, recursos[i]);
+        }
+        for (int i = 0; i < numComentarios; i++) {
+            escribirTexto(out, comentarios[i]);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Construye una actividad a partir de un registro de toBinario, leyendo desde la
+     * posición actual del buffer
+     *
+     * @param registro buffer colocado al principio del registro
+     * @param maxRecursos numero maximo de recursos que se cargarán
+     * @param maxComentarios numero maximo de comentarios que se cargaran
+     * @return actividad leída
+     */
+    public static Actividad fromBinario(ByteBuffer registro, int maxRecursos, int maxComentarios) {
+        Actividad actividad = new Actividad(leerTexto(registro), maxRecursos, maxComentarios);
+        actividad.precio = registro.getDouble();
+        actividad.duracionMinutos = registro.getInt();
+        int recursosGuardados = registro.getInt();
+        int comentariosGuardados = registro.getInt();
+        actividad.descripcion = leerTexto(registro);
+        for (int i = 0; i < recursosGuardados; i++) {
+            actividad.agregarRecurso(leerTexto(registro));
+        }
+        for (int i = 0; i < comentariosGuardados; i++) {
+            actividad.agregarComentario(leerTexto(registro));
+        }
+        return actividad;
+    }
+
+    /**
+     * Construye una actividad diferida a partir de un registro de toBinario. Solo se leen nombre,
+     * precio, duración y número de recursos y comentarios; el buffer debe seguir disponible
+     * mientras exista la actividad y no se modifica
+     *
+     * @param buffer buffer que contiene el registro
+     * @param posicion posición del registro en el buffer
+     * @param maxRecursos numero maximo de recursos que se cargarán
+     * @param maxComentarios numero maximo de comentarios que se cargaran
+     * @param cachear si los campos pesados ya leídos se conservan mientras haya memoria
+     * @return actividad diferida
+     */
+    static Actividad fromBinarioDiferido(ByteBuffer buffer, int posicion, int maxRecursos, int maxComentarios, boolean cachear) {
+        ByteBuffer lectura = buffer.duplicate();
+        lectura.position(posicion);
+        Actividad actividad = new Actividad(leerTexto(lectura), maxRecursos, maxComentarios, buffer, posicion, cachear);
+        actividad.precio = lectura.getDouble();
+        actividad.duracionMinutos = lectura.getInt();
+        actividad.numRecursos = Math.min(lectura.getInt(), maxRecursos);
+        actividad.numComentarios = Math.min(lectura.getInt(), maxComentarios);
+        return actividad;
+    }
+
+    /**
+     * Lee del registro la actividad completa, o la toma de la referencia blanda si sigue viva.
+     * Usa una copia del buffer, así que pueden llamarlo varios hilos a la vez; la referencia es
+     * volatile para que un hilo que la encuentra vea también los campos de la actividad leída
+     * @return actividad con todos los campos leídos
+     */
+    private Actividad completa() {
+        SoftReference<Actividad> guardada = decodificada;
+        Actividad leida = guardada == null ? null : guardada.get();
+        if (leida == null) {
+            ByteBuffer lectura = registro.duplicate();
+            lectura.position(posicionRegistro);
+            leida = fromBinario(lectura, maxRecursos, maxComentarios);
+            if (cachearRegistro) decodificada = new SoftReference<>(leida);
+        }
+        return leida;
+    }
+
+    /**
+     * Copia a la actividad los campos pesados y suelta el registro, antes de modificarla
+     */
+    private void materializar() {
+        if (registro == null) return;
+        Actividad leida = completa();
+        descripcion = leida.descripcion;
+        recursos = leida.recursos;
+        comentarios = leida.comentarios;
+        numRecursos = leida.numRecursos;
+        numComentarios = leida.numComentarios;
+        registro = null;
+        decodificada = null;
+    }
+
+    /**
+     * Escribe un texto precedido de su longitud en bytes
+     * @param out flujo de salida
+     * @param texto texto o null
+     * @throws IOException si hay error al escribir
+     */
+    private static void escribirTexto(DataOutputStream out, String texto) throws IOException {
+        if (texto == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Lee un texto escrito con escribirTexto
+     * @param buffer buffer colocado en la longitud del texto
+     * @return texto o null
+     */
+    static String leerTexto(ByteBuffer buffer) {
+        int longitud = buffer.getInt();
+        if (longitud < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[longitud];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
     /**
      * Construye una actividad leyendo su información desde un flujo
-     * de texto
+     * de texto. La lectura termina en la línea "-----" del final del registro
      *
      * @param reader fuente de datos
      * @param maxRecursos numero maximo de recursos qwue se cargarán
      * @param maxComentarios numero maximo de comentarios que se cargaran
-     * @return
+     * @return actividad leída o null si no quedan actividades
      * @throws IOException si hay error de lectura
      */
     public static Actividad fromBufferedReader(BufferedReader reader, int maxRecursos, int maxComentarios) throws IOException {
@@ -268,7 +497,7 @@ public class Actividad {
         String linea;
         boolean leyendoComentarios = false;
         boolean seguir = false;
-        while ((linea = reader.readLine()) != null && !seguir) {
+        while (!seguir && (linea = reader.readLine()) != null) {
             String lineaLimpia = linea.trim();
             if (lineaLimpia.equals("-----")) {
                 seguir = true;}
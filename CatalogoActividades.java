@@ -1,20 +1,62 @@
 package es.upm;
 import java.io.IOException;
 import java.io.BufferedWriter;
-import java.io.BufferedReader;
+import java.io.InterruptedIOException;
 import java.io.FileWriter;
-import java.io.FileReader;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 
 /**
  * Almacena un conjunto de actividades. Clase que permite
  * agregar, buscar y eliminar actividades.
+ * Cada alta recibe un identificador estable (su número de secuencia). Las bajas solo
+ * dejan el hueco vacío y el catálogo se compacta cuando los huecos superan a las
+ * actividades, de modo que eliminar cuesta tiempo constante amortizado.
+ * El almacenamiento crece por segmentos, así que el máximo de actividades es opcional.
  * @author Sara Paloma Martínez-Tizón García, BW0100
  */
 public class CatalogoActividades {
-    private Actividad[] actividades;
+    private TablaSegmentada tabla;
     private int maxActividades;
     private int numActividades;
+    private int numOcupadas;
+    private long siguienteSecuencia;
+    private HashMap<String, ArrayList<Actividad>> indiceNombres;
+    private HashMap<String, ListaSecuencias> indiceTrigramas;
+    private IdentityHashMap<Actividad, ListaSecuencias> secuenciasPorActividad;
+    private NormalizadorBusqueda normalizador;
+    private int umbralParalelo;
+    private IndiceOrdenado indicePrecios;
+    private IndiceOrdenado indiceDuraciones;
+    private boolean indicesRangoValidos;
+    private boolean observarActividades;
+    private final ObservadorActividad observador = new ObservadorCatalogo(this);
+    private LinkedHashMap<String, Actividad[]> cache;
+    private int tamanoCache;
+    private long aciertosCache;
+    private long fallosCache;
+    private long expulsionesCache;
 
     /**
      * Valor de exito del proceso (0)
@@ -28,15 +70,83 @@ public class CatalogoActividades {
      * Valor de error si las actividades son mas del máximo (2)
      */
     public static final int ERROR_DEMASIADOS = 2;
+    /**
+     * Tamaño de catálogo a partir del cual los recorridos completos se reparten entre núcleos (50000)
+     */
+    public static final int UMBRAL_PARALELO_DEFECTO = 50000;
+    /**
+     * Extensión de los ficheros de catálogo en formato binario
+     */
+    public static final String EXTENSION_BINARIA = ".bin";
+    /**
+     * Modo de carga binaria que lee todos los campos de cada actividad (0)
+     */
+    public static final int CARGA_COMPLETA = 0;
+    /**
+     * Modo de carga binaria que deja descripción, recursos y comentarios en el archivo
+     * proyectado y los lee cada vez que se piden (1)
+     */
+    public static final int CARGA_DIFERIDA = 1;
+    /**
+     * Como CARGA_DIFERIDA, pero lo leído se conserva en una referencia blanda (SoftReference) mientras haya memoria (2)
+     */
+    public static final int CARGA_DIFERIDA_CACHE = 2;
+    private static final int TRAMO_MINIMO_PARALELO = 8192;
+    private static final int MAGICO_BINARIO = 0x41435456;
+    private static final int VERSION_BINARIO = 1;
+    private static final int TAMANO_CABECERA = 24;
+    private static final int TAMANO_BUFFER_ESCRITURA = 1 << 16;
+    private static final long TAMANO_VENTANA = 1L << 28;
+    private static final long TAMANO_TROZO_TEXTO = 1L << 22;
+    private static final int HUECOS_MINIMOS_COMPACTAR = 64;
 
     /**
-     * Método constructor para definir atributos
-     * @param maxActividades Numero máximo de actividades pertimidas
+     * Crea un catálogo sin límite de actividades
+     */
+    public CatalogoActividades() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Método constructor para definir atributos. La memoria se reserva a medida que entran actividades
+     * @param maxActividades Numero máximo de actividades pertimidas (Integer.MAX_VALUE para no limitarlo)
      */
     public CatalogoActividades(int maxActividades) {
         this.maxActividades = maxActividades;
-        this.actividades = new Actividad[maxActividades];
+        this.tabla = new TablaSegmentada();
         this.numActividades = 0;
+        this.numOcupadas = 0;
+        this.siguienteSecuencia = 0;
+        this.indiceNombres = new HashMap<>();
+        this.indiceTrigramas = new HashMap<>();
+        this.secuenciasPorActividad = new IdentityHashMap<>();
+        this.normalizador = new NormalizadorBusqueda();
+        this.umbralParalelo = UMBRAL_PARALELO_DEFECTO;
+        this.indicePrecios = new IndiceOrdenado();
+        this.indiceDuraciones = new IndiceOrdenado();
+        this.indicesRangoValidos = false;
+        this.observarActividades = true;
+        this.cache = null;
+        this.tamanoCache = 0;
+    }
+
+    /**
+     * Crea una copia del catálogo con las mismas actividades, claves e identificadores,
+     * sin caché. Si no observa las actividades, los cambios de precio o duración no se
+     * reflejan en sus índices de rango hasta que se hace otra copia
+     * @param origen catálogo que se copia
+     * @param observarActividades si se registra como observador de las actividades
+     */
+    CatalogoActividades(CatalogoActividades origen, boolean observarActividades) {
+        this(origen.maxActividades);
+        this.normalizador = origen.normalizador;
+        this.umbralParalelo = origen.umbralParalelo;
+        this.observarActividades = observarActividades;
+        for (int i = 0; i < origen.numOcupadas; i++) {
+            Actividad actividad = origen.tabla.actividad(i);
+            if (actividad != null) insertar(actividad, origen.tabla.clave(i), origen.tabla.secuencia(i));
+        }
+        this.siguienteSecuencia = origen.siguienteSecuencia;
     }
 
     /**Verifica se si el número de actividades esta completa
@@ -53,6 +163,21 @@ public class CatalogoActividades {
     public int getNumActividades() {
         return numActividades;}
 
+    /**Devuelve todas las actividades del catálogo sin pasar por las búsquedas ni por la caché
+     * @return copia de las actividades, en orden de catálogo
+     */
+    public Actividad[] obtenerActividades() {
+        Actividad[] resultado = new Actividad[numActividades];
+        int n = 0;
+        for (int i = 0; i < numOcupadas; i++) {
+            if (tabla.actividad(i) != null) {
+                resultado[n] = tabla.actividad(i);
+                n++;
+            }
+        }
+        return resultado;
+    }
+
     /**
      * Añade una nueva actividad si hay espacio disponible y devuelve si se ha efectuado el proceso (0),
      * En caso contrario dara un valor de error (1 o 2)
@@ -64,53 +189,1070 @@ public class CatalogoActividades {
         if (actividad == null) revision = ERROR_ACTIVIDAD_NULL;
         else if (actividadesCompletas()) revision = ERROR_DEMASIADOS;
         else {
-            actividades[numActividades] = actividad;
-            numActividades++;}
+            if (numOcupadas == maxActividades) compactar();
+            insertar(actividad, normalizar(actividad.getNombre()), siguienteSecuencia);
+            siguienteSecuencia++;}
         return revision;
     }
 
+    /**Guarda una actividad al final del catálogo y la añade a todos los índices
+     * @param actividad actividad nueva
+     * @param clave nombre normalizado
+     * @param secuencia secuencia mayor que todas las del catálogo
+     */
+    private void insertar(Actividad actividad, String clave, long secuencia) {
+        int posicion = numOcupadas;
+        tabla.poner(posicion, actividad, secuencia, clave);
+        tabla.ponerValores(posicion, actividad.getPrecio(), actividad.getDuracionMinutos());
+        numOcupadas++;
+        numActividades++;
+        indiceNombres.computeIfAbsent(clave, k -> new ArrayList<>()).add(actividad);
+        indexarTrigramas(clave, secuencia);
+        secuenciasPorActividad.computeIfAbsent(actividad, k -> new ListaSecuencias()).agregar(secuencia);
+        if (observarActividades) actividad.registrarObservador(observador);
+        if (indicesRangoValidos) {
+            indicePrecios.agregar(IndiceOrdenado.clavePrecio(actividad.getPrecio()), posicion);
+            indiceDuraciones.agregar(actividad.getDuracionMinutos(), posicion);
+        }
+        invalidarCache(clave);
+    }
+
     /**
-     * Elimina la actividad seleccionada y devuelve si se ha efectuado el proceso (True),
+     * Observador que las actividades guardan en lugar del propio catálogo. Solo lo referencia de
+     * forma débil, así que una actividad no mantiene vivo un catálogo (o una copia) que ya nadie
+     * usa; en el primer aviso después de que se libere, se quita de la actividad
+     */
+    private static class ObservadorCatalogo implements ObservadorActividad {
+        private final WeakReference<CatalogoActividades> catalogo;
+
+        /**
+         * @param catalogo catálogo al que se avisa
+         */
+        ObservadorCatalogo(CatalogoActividades catalogo) {
+            this.catalogo = new WeakReference<>(catalogo);
+        }
+
+        @Override
+        public void actividadModificada(Actividad actividad) {
+            CatalogoActividades destino = catalogo.get();
+            if (destino == null) {
+                actividad.quitarObservador(this);
+            } else {
+                destino.actualizarValoresRango(actividad);
+            }
+        }
+    }
+
+    /**Deja construidos los índices que se calculan al consultar, para que las búsquedas
+     * posteriores solo lean. Lo usa el catálogo concurrente antes de publicar una copia
+     */
+    void prepararLecturas() {
+        actualizarIndicesRango();
+    }
+
+    /**
+     * Elimina la actividad seleccionada (todas sus apariciones) y devuelve si se ha efectuado el proceso (True),
      * En caso contrario dara un valor de error (False)
      * @param seleccionada actividad seleccionada para eliminar
      * @return valor, código del resultado (True o False)
      */
     public boolean eliminarActividad(Actividad seleccionada) {
-        boolean eliminado = false;
-        for (int i = 0; i < numActividades; i++) {
-            if (actividades[i] == seleccionada) {
-                for (int j = i; j < numActividades - 1; j++) {
-                    actividades[j] = actividades[j + 1];
-                }
-                actividades[numActividades - 1] = null;
-                numActividades--;
-                eliminado = true;}}
+        boolean eliminado = quitarActividad(seleccionada);
+        if (eliminado) compactarSiConviene();
         return eliminado;
     }
 
-    /**Busca todas aquellas actividades que su nombre sea el texto introducido
+    /**
+     * Elimina de una vez varias actividades. El catálogo se compacta como mucho una vez al final,
+     * así que borrar miles de actividades cuesta tiempo lineal
+     * @param seleccionadas actividades que se quieren eliminar
+     * @return número de actividades del array que estaban en el catálogo
+     */
+    public int eliminarActividades(Actividad[] seleccionadas) {
+        int eliminadas = 0;
+        for (Actividad seleccionada : seleccionadas) {
+            if (quitarActividad(seleccionada)) eliminadas++;
+        }
+        if (eliminadas > 0) compactarSiConviene();
+        return eliminadas;
+    }
+
+    /**Devuelve el identificador estable de una actividad del catálogo. No cambia aunque se eliminen
+     * otras actividades ni al compactar
+     * @param actividad actividad buscada (se compara por identidad)
+     * @return identificador de su primera aparición o -1 si no está en el catálogo
+     */
+    public long obtenerIdentificador(Actividad actividad) {
+        ListaSecuencias propias = secuenciasPorActividad.get(actividad);
+        return propias == null ? -1 : propias.obtener(0);
+    }
+
+    /**Devuelve la actividad con el identificador indicado
+     * @param identificador identificador estable
+     * @return actividad o null si no existe o ya se eliminó
+     */
+    public Actividad obtenerPorIdentificador(long identificador) {
+        int i = posicionDe(identificador);
+        return i < 0 ? null : tabla.actividad(i);
+    }
+
+    /**Elimina solo la aparición de la actividad con el identificador indicado
+     * @param identificador identificador estable
+     * @return true si se elimina, false si no existía
+     */
+    public boolean eliminarPorIdentificador(long identificador) {
+        int i = posicionDe(identificador);
+        if (i < 0) return false;
+        ListaSecuencias propias = secuenciasPorActividad.get(tabla.actividad(i));
+        propias.eliminar(identificador);
+        if (propias.getTamano() == 0) secuenciasPorActividad.remove(tabla.actividad(i));
+        vaciarHueco(i);
+        compactarSiConviene();
+        return true;
+    }
+
+    /**Posición que ocupa un identificador, por búsqueda binaria sobre las secuencias
+     * @param identificador identificador estable
+     * @return posición o -1 si no existe o su hueco está vacío
+     */
+    private int posicionDe(long identificador) {
+        int i = tabla.buscar(identificador, numOcupadas);
+        return i < 0 || tabla.actividad(i) == null ? -1 : i;
+    }
+
+    /**Vacía todos los huecos de una actividad sin compactar
+     * @param seleccionada actividad que se quita
+     * @return true si estaba en el catálogo
+     */
+    private boolean quitarActividad(Actividad seleccionada) {
+        ListaSecuencias propias = secuenciasPorActividad.remove(seleccionada);
+        if (propias == null) return false;
+        for (int k = 0; k < propias.getTamano(); k++) {
+            vaciarHueco(tabla.buscar(propias.obtener(k), numOcupadas));
+        }
+        return true;
+    }
+
+    /**Deja vacío un hueco. Las listas de trigramas conservan su secuencia hasta la
+     * siguiente compactación; las búsquedas saltan los huecos vacíos
+     * @param i posición ocupada
+     */
+    private void vaciarHueco(int i) {
+        Actividad actividad = tabla.actividad(i);
+        if (indicesRangoValidos) {
+            indicePrecios.quitar(IndiceOrdenado.clavePrecio(tabla.precio(i)), i);
+            indiceDuraciones.quitar(tabla.duracion(i), i);
+        }
+        quitarDelIndice(actividad, tabla.clave(i));
+        invalidarCache(tabla.clave(i));
+        if (observarActividades) actividad.quitarObservador(observador);
+        tabla.vaciar(i);
+        numActividades--;
+    }
+
+    /**Compacta el catálogo si los huecos vacíos superan a las actividades
+     */
+    private void compactarSiConviene() {
+        int huecos = numOcupadas - numActividades;
+        if (huecos >= HUECOS_MINIMOS_COMPACTAR && huecos > numActividades) compactar();
+    }
+
+    /**Junta las actividades al principio, conservando su orden y sus identificadores,
+     * rehace el índice de trigramas sin las secuencias eliminadas y renumera los índices de rango
+     */
+    private void compactar() {
+        int[] nuevas = new int[numOcupadas];
+        int j = 0;
+        for (int i = 0; i < numOcupadas; i++) {
+            if (tabla.actividad(i) != null) {
+                tabla.poner(j, tabla.actividad(i), tabla.secuencia(i), tabla.clave(i));
+                tabla.ponerValores(j, tabla.precio(i), tabla.duracion(i));
+                nuevas[i] = j;
+                j++;
+            }
+        }
+        tabla.recortar(j, numOcupadas);
+        numOcupadas = j;
+        indiceTrigramas.clear();
+        for (int i = 0; i < numOcupadas; i++) {
+            indexarTrigramas(tabla.clave(i), tabla.secuencia(i));
+        }
+        if (indicesRangoValidos) {
+            indicePrecios.renumerar(nuevas);
+            indiceDuraciones.renumerar(nuevas);
+        }
+    }
+
+    /**Quita una aparición de la actividad del índice de nombres
+     * @param actividad actividad que sale del catálogo
+     * @param clave clave de búsqueda con la que se indexó
+     */
+    private void quitarDelIndice(Actividad actividad, String clave) {
+        ArrayList<Actividad> mismas = indiceNombres.get(clave);
+        if (mismas != null) {
+            for (int i = 0; i < mismas.size(); i++) {
+                if (mismas.get(i) == actividad) {
+                    mismas.remove(i);
+                    break;
+                }
+            }
+            if (mismas.isEmpty()) {
+                indiceNombres.remove(clave);
+            }
+        }
+    }
+
+    /**Añade la secuencia de una actividad a la lista de cada trigrama distinto de su clave.
+     * Las secuencias crecen con cada alta, así que las listas quedan en orden de catálogo
+     * @param clave nombre normalizado
+     * @param secuencia secuencia de la actividad
+     */
+    private void indexarTrigramas(String clave, long secuencia) {
+        for (int i = 0; i + 3 <= clave.length(); i++) {
+            ListaSecuencias lista = indiceTrigramas.computeIfAbsent(clave.substring(i, i + 3), k -> new ListaSecuencias());
+            if (lista.ultima() != secuencia) lista.agregar(secuencia);
+        }
+    }
+
+    /**Clave de búsqueda de un texto según las reglas del normalizador del catálogo
+     * @param texto nombre de la actividad o texto buscado
+     * @return texto normalizado
+     */
+    private String normalizar(String texto) {
+        return normalizador.normalizar(texto);
+    }
+
+    /**Devuelve las reglas con las que se normalizan nombres y búsquedas
+     * @return normalizador del catálogo
+     */
+    public NormalizadorBusqueda getNormalizador() {
+        return normalizador;}
+
+    /**Cambia las reglas de normalización y recalcula una vez las claves e índices de todas las actividades
+     * @param normalizador nuevas reglas
+     */
+    public void setNormalizador(NormalizadorBusqueda normalizador) {
+        this.normalizador = normalizador;
+        vaciarCache();
+        compactar();
+        indiceNombres.clear();
+        indiceTrigramas.clear();
+        for (int i = 0; i < numOcupadas; i++) {
+            tabla.ponerClave(i, normalizar(tabla.actividad(i).getNombre()));
+            indiceNombres.computeIfAbsent(tabla.clave(i), k -> new ArrayList<>()).add(tabla.actividad(i));
+            indexarTrigramas(tabla.clave(i), tabla.secuencia(i));
+        }
+    }
+
+    /**Busca la actividad cuyo nombre coincide exactamente con el indicado, en tiempo constante
+     * @param nombre nombre exacto de la actividad
+     * @return primera actividad del catálogo con ese nombre o null si no hay ninguna
+     */
+    public Actividad buscarActividadExacta(String nombre) {
+        if (nombre == null) return null;
+        ArrayList<Actividad> mismas = indiceNombres.get(normalizar(nombre));
+        if (mismas != null) {
+            for (Actividad act : mismas) {
+                if (act.getNombre().equals(nombre)) return act;
+            }
+        }
+        return null;
+    }
+
+    /**Comprueba en tiempo constante si ya hay alguna actividad con ese nombre una vez normalizado
+     * @param nombre nombre que se quiere comprobar
+     * @return true si el nombre ya está en el catálogo
+     */
+    public boolean contieneNombre(String nombre) {
+        return nombre != null && indiceNombres.containsKey(normalizar(nombre));
+    }
+
+    /**Busca todas aquellas actividades cuyo nombre contiene el texto introducido. Nombre y texto se comparan
+     * por su clave normalizada (por defecto sin mayúsculas, acentos ni espacios repetidos), que para cada
+     * actividad se calcula una sola vez al añadirla. Con tres o más caracteres se usa el índice de trigramas: solo se comprueban las actividades
+     * que contienen todos los trigramas del texto
      * @param texto Texto que hay que buscar en la actividad
-     * @return Lista de todas las actividades encontradas por ese nombre
+     * @return Lista de todas las actividades encontradas por ese nombre, en orden de catálogo
      */
     public Actividad[] buscarActividadPorNombre(String texto) {
         if (texto == null) return new Actividad[0];
-        String busqueda = texto.toLowerCase();
-        Actividad[] aux = new Actividad[this.numActividades];
-        int contador = 0;
-        for (int i = 0; i < this.numActividades; i++) {
-            if (this.actividades[i] != null && this.actividades[i].getNombre().toLowerCase().contains(busqueda)) {
-                aux[contador] = this.actividades[i];
-                contador++;
+        String busqueda = normalizar(texto);
+        if (cache == null) return buscarPorClave(busqueda);
+        Actividad[] resultado = cache.get(busqueda);
+        if (resultado != null) {
+            aciertosCache++;
+        } else {
+            fallosCache++;
+            resultado = buscarPorClave(busqueda);
+            cache.put(busqueda, resultado);
+        }
+        return resultado.clone();
+    }
+
+    /**Búsqueda por nombre sin pasar por la caché
+     * @param busqueda texto normalizado
+     * @return actividades encontradas, en orden de catálogo
+     */
+    private Actividad[] buscarPorClave(String busqueda) {
+        ArrayList<Actividad> resultado = new ArrayList<>();
+        if (busqueda.length() < 3) {
+            return recorrer(busqueda, false);
+        } else {
+            for (long secuencia : candidatosTrigramas(busqueda)) {
+                int i = tabla.buscar(secuencia, numOcupadas);
+                if (tabla.actividad(i) != null && tabla.clave(i).contains(busqueda)) {
+                    resultado.add(tabla.actividad(i));
+                }
+            }
+        }
+        return resultado.toArray(new Actividad[0]);
+    }
+
+    /**Devuelve una página de la búsqueda por nombre sin construir el resultado completo
+     * @param texto Texto que hay que buscar en la actividad
+     * @param desde número de coincidencias que se saltan
+     * @param limite número máximo de actividades devueltas
+     * @return actividades de la página, en orden de catálogo
+     */
+    public Actividad[] buscarActividadPorNombre(String texto, int desde, int limite) {
+        Iterator<Actividad> coincidencias = iterarActividadesPorNombre(texto);
+        for (int i = 0; i < desde && coincidencias.hasNext(); i++) {
+            coincidencias.next();
+        }
+        ArrayList<Actividad> pagina = new ArrayList<>();
+        while (pagina.size() < limite && coincidencias.hasNext()) {
+            pagina.add(coincidencias.next());
+        }
+        return pagina.toArray(new Actividad[0]);
+    }
+
+    /**Recorre bajo demanda las actividades cuyo nombre contiene el texto, en orden de catálogo.
+     * Cada coincidencia se busca al pedirla, así que parar pronto no cuesta el resto del catálogo.
+     * El catálogo no debe modificarse mientras se usa el iterador
+     * @param texto Texto que hay que buscar en la actividad
+     * @return iterador de las actividades encontradas
+     */
+    public Iterator<Actividad> iterarActividadesPorNombre(String texto) {
+        return new IteradorBusqueda(texto == null ? null : normalizar(texto));
+    }
+
+    /**Devuelve las actividades más relevantes para el texto: primero las que empiezan por él,
+     * después las de nombre más corto y, a igualdad, las que entraron antes en el catálogo.
+     * La ordenación usa un montículo de tamaño máximo igual al límite, así que la memoria no
+     * depende del número de coincidencias
+     * @param texto Texto que hay que buscar en la actividad
+     * @param limite número máximo de actividades devueltas
+     * @return actividades encontradas, de más a menos relevante
+     */
+    public Actividad[] buscarMejoresPorNombre(String texto, int limite) {
+        if (limite <= 0) return new Actividad[0];
+        IteradorBusqueda coincidencias = new IteradorBusqueda(texto == null ? null : normalizar(texto));
+        String busqueda = coincidencias.busqueda;
+        Comparator<Integer> orden = Comparator
+                .comparing((Integer i) -> !tabla.clave(i).startsWith(busqueda))
+                .thenComparingInt(i -> tabla.clave(i).length())
+                .thenComparingLong(i -> tabla.secuencia(i));
+        PriorityQueue<Integer> peores = new PriorityQueue<>(limite, orden.reversed());
+        while (coincidencias.hasNext()) {
+            coincidencias.next();
+            Integer posicion = coincidencias.posicion;
+            if (peores.size() < limite) {
+                peores.add(posicion);
+            } else if (orden.compare(posicion, peores.peek()) < 0) {
+                peores.poll();
+                peores.add(posicion);
+            }
+        }
+        Actividad[] resultado = new Actividad[peores.size()];
+        for (int i = resultado.length - 1; i >= 0; i--) {
+            resultado[i] = tabla.actividad(peores.poll());
+        }
+        return resultado;
+    }
+
+    /**Busca las actividades cuyo nombre contiene el texto con como mucho el número de errores indicado
+     * (letras cambiadas, sobrantes o que faltan). Solo se calcula la distancia de los nombres que comparten
+     * suficientes trigramas con el texto, porque cada error rompe como mucho tres: se mezclan las listas más
+     * cortas y en las más largas solo se consulta por búsqueda binaria. Si el texto es demasiado
+     * corto para ese filtro se comprueban todos los nombres de longitud suficiente, en paralelo por encima del umbral. La distancia se calcula
+     * con paralelismo de bits, una operación por letra del nombre para textos de hasta 64 caracteres
+     * @param texto Texto que hay que buscar en la actividad
+     * @param maxDistancia número máximo de errores permitidos
+     * @return actividades encontradas, de menos a más errores y en orden de catálogo a igualdad
+     */
+    public Actividad[] buscarActividadAproximada(String texto, int maxDistancia) {
+        return buscarActividadAproximada(texto, maxDistancia, Integer.MAX_VALUE);
+    }
+
+    /**Busca como buscarActividadAproximada, pero solo devuelve las primeras actividades en ese orden.
+     * Con textos cortos, en los que no se puede filtrar por trigramas, el catálogo se recorre por tramos
+     * y en cuanto hay bastantes actividades con d errores o menos se dejan de buscar las que tienen d o más,
+     * porque ya no entrarían; si solo pueden entrar coincidencias exactas, el resto se busca con el índice
+     * de trigramas. Como los textos cortos con errores se parecen a muchos nombres, normalmente basta con
+     * leer una parte pequeña del catálogo
+     * @param texto Texto que hay que buscar en la actividad
+     * @param maxDistancia número máximo de errores permitidos
+     * @param limite número máximo de actividades devueltas
+     * @return actividades encontradas, de menos a más errores y en orden de catálogo a igualdad
+     */
+    public Actividad[] buscarActividadAproximada(String texto, int maxDistancia, int limite) {
+        if (texto == null || maxDistancia < 0 || limite <= 0) return new Actividad[0];
+        String busqueda = normalizar(texto);
+        ArrayList<ListaSecuencias> listas = new ArrayList<>();
+        int numTrigramas = 0;
+        ArrayList<String> vistos = new ArrayList<>();
+        for (int i = 0; i + 3 <= busqueda.length(); i++) {
+            String trigrama = busqueda.substring(i, i + 3);
+            if (!vistos.contains(trigrama)) {
+                vistos.add(trigrama);
+                numTrigramas++;
+                ListaSecuencias lista = indiceTrigramas.get(trigrama);
+                if (lista != null) listas.add(lista);
+            }
+        }
+        int minimoComunes = numTrigramas - 3 * maxDistancia;
+        long[] mascaras = busqueda.length() <= 64 ? mascarasPatron(busqueda) : null;
+        ArrayList<int[]> encontradas = new ArrayList<>();
+        if (minimoComunes <= 0) {
+            encontradas = limite == Integer.MAX_VALUE ? aproximadasEnTramo(busqueda, mascaras, maxDistancia, 0, numOcupadas)
+                    : aproximadasHastaLimite(busqueda, mascaras, maxDistancia, limite);
+        } else {
+            listas.sort((x, y) -> Integer.compare(x.getTamano(), y.getTamano()));
+            int numCortas = listas.size() - minimoComunes + 1;
+            PriorityQueue<int[]> frentes = new PriorityQueue<>(
+                    Comparator.comparingLong((int[] f) -> listas.get(f[0]).obtener(f[1])));
+            for (int t = 0; t < numCortas; t++) {
+                frentes.add(new int[] {t, 0});
+            }
+            while (!frentes.isEmpty()) {
+                long secuencia = listas.get(frentes.peek()[0]).obtener(frentes.peek()[1]);
+                int comunes = 0;
+                while (!frentes.isEmpty() && listas.get(frentes.peek()[0]).obtener(frentes.peek()[1]) == secuencia) {
+                    int[] frente = frentes.poll();
+                    comunes++;
+                    frente[1]++;
+                    if (frente[1] < listas.get(frente[0]).getTamano()) frentes.add(frente);
+                }
+                for (int t = numCortas; t < listas.size() && comunes < minimoComunes; t++) {
+                    if (listas.get(t).contiene(secuencia)) comunes++;
+                }
+                if (comunes >= minimoComunes) {
+                    int i = tabla.buscar(secuencia, numOcupadas);
+                    anotarSiAproxima(i, busqueda, mascaras, maxDistancia, encontradas);
+                }
+            }
+        }
+        encontradas.sort((a, b) -> a[1] != b[1] ? Integer.compare(a[1], b[1]) : Integer.compare(a[0], b[0]));
+        Actividad[] resultado = new Actividad[Math.min(encontradas.size(), limite)];
+        for (int i = 0; i < resultado.length; i++) {
+            resultado[i] = tabla.actividad(encontradas.get(i)[0]);
+        }
+        return resultado;
+    }
+
+    /**Calcula la distancia de todos los nombres de un tramo del catálogo, en paralelo por encima del umbral
+     * @param busqueda texto normalizado
+     * @param mascaras máscaras del texto o null si tiene más de 64 caracteres
+     * @param maxDistancia número máximo de errores
+     * @param desde primera posición del tramo
+     * @param hasta posición siguiente a la última del tramo
+     * @return pares {posición, distancia} de los nombres que no superan el máximo
+     */
+    private ArrayList<int[]> aproximadasEnTramo(String busqueda, long[] mascaras, int maxDistancia, int desde, int hasta) {
+        if (hasta - desde >= umbralParalelo) {
+            return ForkJoinPool.commonPool().invoke(new RecorridoAproximado(busqueda, mascaras, maxDistancia, desde, hasta));
+        }
+        ArrayList<int[]> encontradas = new ArrayList<>();
+        for (int i = desde; i < hasta; i++) {
+            anotarSiAproxima(i, busqueda, mascaras, maxDistancia, encontradas);
+        }
+        return encontradas;
+    }
+
+    /**Recorre el catálogo por tramos buscando solo lo que aún puede quedar entre las primeras actividades:
+     * tras cada tramo, si ya hay "limite" actividades con d errores o menos, las posiciones siguientes
+     * solo entran con menos de d errores
+     * @param busqueda texto normalizado
+     * @param mascaras máscaras del texto o null si tiene más de 64 caracteres
+     * @param maxDistancia número máximo de errores
+     * @param limite número máximo de actividades que se devolverán
+     * @return pares {posición, distancia} que incluyen las "limite" mejores
+     */
+    private ArrayList<int[]> aproximadasHastaLimite(String busqueda, long[] mascaras, int maxDistancia, int limite) {
+        ArrayList<int[]> encontradas = new ArrayList<>();
+        int[] porDistancia = new int[maxDistancia + 1];
+        int distanciaUtil = maxDistancia;
+        int tramo = Math.max(umbralParalelo, TRAMO_MINIMO_PARALELO);
+        for (int desde = 0; desde < numOcupadas && distanciaUtil >= 0; desde += tramo) {
+            if (distanciaUtil == 0 && busqueda.length() >= 3) {
+                for (long secuencia : candidatosTrigramas(busqueda)) {
+                    int i = tabla.buscar(secuencia, numOcupadas);
+                    if (i >= desde) anotarSiAproxima(i, busqueda, mascaras, 0, encontradas);
+                }
+                break;
+            }
+            ArrayList<int[]> delTramo = aproximadasEnTramo(busqueda, mascaras, distanciaUtil, desde,
+                    Math.min(desde + tramo, numOcupadas));
+            for (int[] encontrada : delTramo) {
+                porDistancia[encontrada[1]]++;
+            }
+            encontradas.addAll(delTramo);
+            int acumuladas = 0;
+            for (int d = 0; d <= distanciaUtil; d++) {
+                acumuladas += porDistancia[d];
+                if (acumuladas >= limite) {
+                    distanciaUtil = d - 1;
+                    break;
+                }
+            }
+        }
+        return encontradas;
+    }
+
+    /**Calcula la distancia de una posición del catálogo y la guarda si no supera el máximo
+     * @param i posición en el catálogo
+     * @param busqueda texto normalizado
+     * @param mascaras máscaras del texto o null si tiene más de 64 caracteres
+     * @param maxDistancia número máximo de errores
+     * @param encontradas pares {posición, distancia} encontrados hasta ahora
+     */
+    private void anotarSiAproxima(int i, String busqueda, long[] mascaras, int maxDistancia, ArrayList<int[]> encontradas) {
+        if (tabla.actividad(i) == null || tabla.clave(i).length() < busqueda.length() - maxDistancia) return;
+        int distancia = mascaras != null ? distanciaBits(busqueda, mascaras, tabla.clave(i))
+                : distanciaTabla(busqueda, tabla.clave(i));
+        if (distancia <= maxDistancia) encontradas.add(new int[] {i, distancia});
+    }
+
+    /**
+     * Tarea fork-join que calcula la distancia de todos los nombres de un tramo del catálogo
+     */
+    private class RecorridoAproximado extends RecursiveTask<ArrayList<int[]>> {
+        private static final long serialVersionUID = 1L;
+        private String busqueda;
+        private long[] mascaras;
+        private int maxDistancia;
+        private int desde;
+        private int hasta;
+
+        RecorridoAproximado(String busqueda, long[] mascaras, int maxDistancia, int desde, int hasta) {
+            this.busqueda = busqueda;
+            this.mascaras = mascaras;
+            this.maxDistancia = maxDistancia;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected ArrayList<int[]> compute() {
+            if (hasta - desde <= TRAMO_MINIMO_PARALELO) {
+                ArrayList<int[]> encontradas = new ArrayList<>();
+                for (int i = desde; i < hasta; i++) {
+                    anotarSiAproxima(i, busqueda, mascaras, maxDistancia, encontradas);
+                }
+                return encontradas;
+            }
+            int medio = (desde + hasta) >>> 1;
+            RecorridoAproximado izquierda = new RecorridoAproximado(busqueda, mascaras, maxDistancia, desde, medio);
+            izquierda.fork();
+            ArrayList<int[]> derecha = new RecorridoAproximado(busqueda, mascaras, maxDistancia, medio, hasta).compute();
+            ArrayList<int[]> resultado = izquierda.join();
+            resultado.addAll(derecha);
+            return resultado;
+        }
+    }
+
+    /**Máscaras de bits del patrón para los caracteres ASCII: el bit f indica que la letra f es ese carácter
+     * @param patron texto buscado, de hasta 64 caracteres
+     * @return máscara de cada carácter ASCII
+     */
+    private static long[] mascarasPatron(String patron) {
+        long[] mascaras = new long[128];
+        for (int f = 0; f < patron.length(); f++) {
+            char c = patron.charAt(f);
+            if (c < 128) mascaras[c] |= 1L << f;
+        }
+        return mascaras;
+    }
+
+    /**Menor distancia de edición entre el patrón y cualquier trozo del texto, por el método de
+     * paralelismo de bits de Myers: cada columna de la tabla se guarda como diferencias en dos palabras
+     * @param patron texto buscado, de 1 a 64 caracteres
+     * @param mascaras máscaras de mascarasPatron
+     * @param texto nombre en el que se busca
+     * @return distancia mínima
+     */
+    private static int distanciaBits(String patron, long[] mascaras, String texto) {
+        int m = patron.length();
+        if (m == 0) return 0;
+        long ultimo = 1L << (m - 1);
+        long positivos = m == 64 ? -1L : (1L << m) - 1;
+        long negativos = 0;
+        int distancia = m;
+        int mejor = m;
+        for (int c = 0; c < texto.length() && mejor > 0; c++) {
+            char letra = texto.charAt(c);
+            long iguales = letra < 128 ? mascaras[letra] : mascaraNoAscii(patron, letra);
+            long xv = iguales | negativos;
+            long xh = (((iguales & positivos) + positivos) ^ positivos) | iguales;
+            long ph = negativos | ~(xh | positivos);
+            long mh = positivos & xh;
+            if ((ph & ultimo) != 0) distancia++;
+            else if ((mh & ultimo) != 0) distancia--;
+            ph <<= 1;
+            mh <<= 1;
+            positivos = mh | ~(xv | ph);
+            negativos = ph & xv;
+            mejor = Math.min(mejor, distancia);
+        }
+        return mejor;
+    }
+
+    /**Máscara de un carácter fuera de ASCII, que no está en la tabla
+     * @param patron texto buscado
+     * @param letra carácter del nombre
+     * @return máscara de las posiciones del patrón con ese carácter
+     */
+    private static long mascaraNoAscii(String patron, char letra) {
+        long mascara = 0;
+        for (int f = 0; f < patron.length(); f++) {
+            if (patron.charAt(f) == letra) mascara |= 1L << f;
+        }
+        return mascara;
+    }
+
+    /**Menor distancia de edición entre el patrón y cualquier trozo del texto, por tabla, para
+     * patrones de más de 64 caracteres
+     * @param patron texto buscado
+     * @param texto nombre en el que se busca
+     * @return distancia mínima
+     */
+    private static int distanciaTabla(String patron, String texto) {
+        int m = patron.length();
+        int[] anterior = new int[m + 1];
+        int[] actual = new int[m + 1];
+        for (int f = 0; f <= m; f++) {
+            anterior[f] = f;
+        }
+        int mejor = m;
+        for (int c = 0; c < texto.length() && mejor > 0; c++) {
+            actual[0] = 0;
+            for (int f = 1; f <= m; f++) {
+                int coste = patron.charAt(f - 1) == texto.charAt(c) ? 0 : 1;
+                actual[f] = Math.min(Math.min(actual[f - 1] + 1, anterior[f] + 1), anterior[f - 1] + coste);
+            }
+            mejor = Math.min(mejor, actual[m]);
+            int[] cambio = anterior;
+            anterior = actual;
+            actual = cambio;
+        }
+        return mejor;
+    }
+
+    /**
+     * Iterador perezoso de la búsqueda por nombre. Con tres o más caracteres recorre la lista
+     * de trigramas más corta y comprueba el resto; si no, recorre las posiciones del catálogo
+     */
+    private class IteradorBusqueda implements Iterator<Actividad> {
+        private String busqueda;
+        private ListaSecuencias[] listas;
+        private int siguiente;
+        private int posicion;
+        private int pendiente;
+
+        IteradorBusqueda(String busqueda) {
+            this.busqueda = busqueda;
+            this.siguiente = 0;
+            this.posicion = -1;
+            if (busqueda != null && busqueda.length() >= 3) {
+                ArrayList<ListaSecuencias> distintas = new ArrayList<>();
+                for (int i = 0; i + 3 <= busqueda.length() && distintas != null; i++) {
+                    ListaSecuencias lista = indiceTrigramas.get(busqueda.substring(i, i + 3));
+                    if (lista == null) distintas = null;
+                    else if (!distintas.contains(lista)) distintas.add(lista);
+                }
+                if (distintas == null) this.busqueda = null;
+                else {
+                    distintas.sort((a, b) -> Integer.compare(a.getTamano(), b.getTamano()));
+                    listas = distintas.toArray(new ListaSecuencias[0]);
+                }
+            }
+            this.pendiente = buscarSiguiente();
+        }
+
+        /**Avanza hasta la siguiente coincidencia
+         * @return posición en el catálogo o -1 si no quedan
+         */
+        private int buscarSiguiente() {
+            if (busqueda == null) return -1;
+            if (listas == null) {
+                while (siguiente < numOcupadas) {
+                    int i = siguiente++;
+                    if (tabla.actividad(i) != null && tabla.clave(i).contains(busqueda)) return i;
+                }
+                return -1;
+            }
+            while (siguiente < listas[0].getTamano()) {
+                long secuencia = listas[0].obtener(siguiente++);
+                boolean enTodas = true;
+                for (int j = 1; j < listas.length && enTodas; j++) {
+                    enTodas = listas[j].contiene(secuencia);
+                }
+                if (enTodas) {
+                    int i = tabla.buscar(secuencia, numOcupadas);
+                    if (tabla.actividad(i) != null && tabla.clave(i).contains(busqueda)) return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pendiente >= 0;
+        }
+
+        @Override
+        public Actividad next() {
+            if (pendiente < 0) throw new NoSuchElementException();
+            posicion = pendiente;
+            pendiente = buscarSiguiente();
+            return tabla.actividad(posicion);
+        }
+    }
+
+    /**Devuelve cuántas búsquedas por nombre distintas guarda la caché
+     * @return atributo tamanoCache (0 si la caché está desactivada)
+     */
+    public int getTamanoCache() {
+        return tamanoCache;}
+
+    /**Activa, redimensiona o desactiva la caché de búsquedas por nombre. Cuando se llena
+     * se descarta la búsqueda usada hace más tiempo
+     * @param tamanoCache número máximo de búsquedas guardadas (0 para desactivarla)
+     */
+    public void setTamanoCache(int tamanoCache) {
+        this.tamanoCache = Math.max(0, tamanoCache);
+        if (this.tamanoCache == 0) {
+            cache = null;
+            return;
+        }
+        LinkedHashMap<String, Actividad[]> nueva = new LinkedHashMap<String, Actividad[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Actividad[]> mayor) {
+                boolean expulsar = size() > CatalogoActividades.this.tamanoCache;
+                if (expulsar) expulsionesCache++;
+                return expulsar;
+            }
+        };
+        if (cache != null) nueva.putAll(cache);
+        cache = nueva;
+    }
+
+    /**Devuelve cuántas búsquedas por nombre se han respondido desde la caché
+     * @return atributo aciertosCache
+     */
+    public long getAciertosCache() {
+        return aciertosCache;}
+
+    /**Devuelve cuántas búsquedas por nombre no estaban en la caché
+     * @return atributo fallosCache
+     */
+    public long getFallosCache() {
+        return fallosCache;}
+
+    /**Devuelve cuántas búsquedas se han descartado por falta de sitio en la caché
+     * @return atributo expulsionesCache
+     */
+    public long getExpulsionesCache() {
+        return expulsionesCache;}
+
+    /**Descarta todas las búsquedas guardadas, sin tocar los contadores
+     */
+    public void vaciarCache() {
+        if (cache != null) cache.clear();
+    }
+
+    /**Descarta las búsquedas guardadas cuyo resultado cambia al entrar o salir una actividad:
+     * las que están contenidas en su nombre normalizado
+     * @param clave nombre normalizado de la actividad que entra o sale
+     */
+    private void invalidarCache(String clave) {
+        if (cache == null) return;
+        Iterator<String> guardadas = cache.keySet().iterator();
+        while (guardadas.hasNext()) {
+            if (clave.contains(guardadas.next())) guardadas.remove();
+        }
+    }
+
+    /**Busca todas aquellas actividades cuya descripción contiene el texto introducido, comparando
+     * claves normalizadas. No hay índice de descripciones, así que siempre se recorre el catálogo
+     * @param texto Texto que hay que buscar en la descripción
+     * @return actividades encontradas, en orden de catálogo
+     */
+    public Actividad[] buscarActividadPorDescripcion(String texto) {
+        if (texto == null) return new Actividad[0];
+        return recorrer(normalizar(texto), true);
+    }
+
+    /**Devuelve el tamaño a partir del cual los recorridos completos se hacen en paralelo
+     * @return atributo umbralParalelo
+     */
+    public int getUmbralParalelo() {
+        return umbralParalelo;}
+
+    /**Define el tamaño a partir del cual los recorridos completos se hacen en paralelo
+     * @param umbralParalelo número de actividades (Integer.MAX_VALUE para no usar nunca el paralelo)
+     */
+    public void setUmbralParalelo(int umbralParalelo) {
+        this.umbralParalelo = umbralParalelo;}
+
+    /**Recorre todo el catálogo comprobando cada actividad. Por encima del umbral el recorrido
+     * se divide entre núcleos con fork-join y los trozos se unen en orden de catálogo
+     * @param busqueda texto normalizado
+     * @param enDescripcion true para comparar la descripción, false para el nombre
+     * @return actividades que coinciden, en orden de catálogo
+     */
+    private Actividad[] recorrer(String busqueda, boolean enDescripcion) {
+        ArrayList<Actividad> resultado;
+        if (numOcupadas >= umbralParalelo) {
+            resultado = ForkJoinPool.commonPool().invoke(new Recorrido(busqueda, enDescripcion, 0, numOcupadas));
+        } else {
+            resultado = recorrerTramo(busqueda, enDescripcion, 0, numOcupadas);
+        }
+        return resultado.toArray(new Actividad[0]);
+    }
+
+    /**Recorre secuencialmente un tramo del catálogo
+     * @param busqueda texto normalizado
+     * @param enDescripcion true para comparar la descripción, false para el nombre
+     * @param desde primera posición del tramo
+     * @param hasta posición siguiente a la última del tramo
+     * @return actividades del tramo que coinciden, en orden
+     */
+    private ArrayList<Actividad> recorrerTramo(String busqueda, boolean enDescripcion, int desde, int hasta) {
+        ArrayList<Actividad> resultado = new ArrayList<>();
+        for (int i = desde; i < hasta; i++) {
+            Actividad act = tabla.actividad(i);
+            if (act != null) {
+                if (enDescripcion) {
+                    String descripcion = act.getDescripcion();
+                    if (descripcion != null && normalizar(descripcion).contains(busqueda)) {
+                        resultado.add(act);
+                    }
+                } else if (tabla.clave(i).contains(busqueda)) {
+                    resultado.add(act);
+                }
             }
         }
-        if (contador == 0) {return new Actividad[0];}
+        return resultado;
+    }
+
+    /**
+     * Tarea fork-join que divide un tramo del catálogo por la mitad hasta un tamaño mínimo
+     */
+    private class Recorrido extends RecursiveTask<ArrayList<Actividad>> {
+        private static final long serialVersionUID = 1L;
+        private String busqueda;
+        private boolean enDescripcion;
+        private int desde;
+        private int hasta;
+
+        Recorrido(String busqueda, boolean enDescripcion, int desde, int hasta) {
+            this.busqueda = busqueda;
+            this.enDescripcion = enDescripcion;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected ArrayList<Actividad> compute() {
+            if (hasta - desde <= TRAMO_MINIMO_PARALELO) {
+                return recorrerTramo(busqueda, enDescripcion, desde, hasta);
+            }
+            int medio = (desde + hasta) >>> 1;
+            Recorrido izquierda = new Recorrido(busqueda, enDescripcion, desde, medio);
+            izquierda.fork();
+            ArrayList<Actividad> derecha = new Recorrido(busqueda, enDescripcion, medio, hasta).compute();
+            ArrayList<Actividad> resultado = izquierda.join();
+            resultado.addAll(derecha);
+            return resultado;
+        }
+    }
+
+    /**Busca las actividades con precio entre dos valores, ambos incluidos
+     * @param minimo precio mínimo
+     * @param maximo precio máximo
+     * @return actividades encontradas, en orden de catálogo
+     */
+    public Actividad[] buscarPorPrecio(double minimo, double maximo) {
+        return buscarPorPrecioYDuracion(minimo, maximo, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**Busca las actividades con duración entre dos valores, ambos incluidos
+     * @param minimo duración mínima en minutos
+     * @param maximo duración máxima en minutos
+     * @return actividades encontradas, en orden de catálogo
+     */
+    public Actividad[] buscarPorDuracion(int minimo, int maximo) {
+        return buscarPorPrecioYDuracion(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, minimo, maximo);
+    }
+
+    /**Busca las actividades que cumplen a la vez un rango de precio y uno de duración, ambos incluidos.
+     * Se recorre el rango más pequeño de los dos índices y se filtra por el otro campo
+     * @param precioMinimo precio mínimo
+     * @param precioMaximo precio máximo
+     * @param duracionMinima duración mínima en minutos
+     * @param duracionMaxima duración máxima en minutos
+     * @return actividades encontradas, en orden de catálogo
+     */
+    public Actividad[] buscarPorPrecioYDuracion(double precioMinimo, double precioMaximo, int duracionMinima, int duracionMaxima) {
+        int enPrecio = contarPorPrecio(precioMinimo, precioMaximo);
+        int enDuracion = contarPorDuracion(duracionMinima, duracionMaxima);
+        int[] posiciones;
+        int contador;
+        if (enPrecio <= enDuracion) {
+            posiciones = new int[enPrecio];
+            contador = indicePrecios.recorrer(IndiceOrdenado.clavePrecio(precioMinimo), IndiceOrdenado.clavePrecio(precioMaximo),
+                    i -> tabla.duracion(i) >= duracionMinima && tabla.duracion(i) <= duracionMaxima, posiciones);
+        } else {
+            posiciones = new int[enDuracion];
+            contador = indiceDuraciones.recorrer(duracionMinima, duracionMaxima,
+                    i -> tabla.precio(i) >= precioMinimo && tabla.precio(i) <= precioMaximo, posiciones);
+        }
+        Arrays.sort(posiciones, 0, contador);
         Actividad[] resultado = new Actividad[contador];
         for (int i = 0; i < contador; i++) {
-            resultado[i] = aux[i];
+            resultado[i] = tabla.actividad(posiciones[i]);
         }
         return resultado;
     }
 
+    /**Cuenta en tiempo logarítmico las actividades con precio entre dos valores, ambos incluidos
+     * @param minimo precio mínimo
+     * @param maximo precio máximo
+     * @return número de actividades
+     */
+    public int contarPorPrecio(double minimo, double maximo) {
+        actualizarIndicesRango();
+        return indicePrecios.contar(IndiceOrdenado.clavePrecio(minimo), IndiceOrdenado.clavePrecio(maximo));
+    }
+
+    /**Cuenta en tiempo logarítmico las actividades con duración entre dos valores, ambos incluidos
+     * @param minimo duración mínima en minutos
+     * @param maximo duración máxima en minutos
+     * @return número de actividades
+     */
+    public int contarPorDuracion(int minimo, int maximo) {
+        actualizarIndicesRango();
+        return indiceDuraciones.contar(minimo, maximo);
+    }
+
+    /**Cuenta las actividades que cumplen a la vez un rango de precio y uno de duración, recorriendo
+     * el rango más pequeño de los dos índices sin construir el resultado
+     * @param precioMinimo precio mínimo
+     * @param precioMaximo precio máximo
+     * @param duracionMinima duración mínima en minutos
+     * @param duracionMaxima duración máxima en minutos
+     * @return número de actividades
+     */
+    public int contarPorPrecioYDuracion(double precioMinimo, double precioMaximo, int duracionMinima, int duracionMaxima) {
+        if (contarPorPrecio(precioMinimo, precioMaximo) <= contarPorDuracion(duracionMinima, duracionMaxima)) {
+            return indicePrecios.recorrer(IndiceOrdenado.clavePrecio(precioMinimo), IndiceOrdenado.clavePrecio(precioMaximo),
+                    i -> tabla.duracion(i) >= duracionMinima && tabla.duracion(i) <= duracionMaxima, null);
+        }
+        return indiceDuraciones.recorrer(duracionMinima, duracionMaxima,
+                i -> tabla.precio(i) >= precioMinimo && tabla.precio(i) <= precioMaximo, null);
+    }
+
+    /**Construye los índices de precio y duración si no están construidos. Una vez construidos se
+     * mantienen en cada alta, baja y cambio observado de precio o duración sin reordenarlos
+     * (ver IndiceOrdenado), así que las bajas masivas no cuestan más que sin índices. Las cargas
+     * de archivo los descartan al empezar (ver suspenderIndicesRango), así que una carga masiva
+     * cuesta una única ordenación en la siguiente consulta
+     */
+    private void actualizarIndicesRango() {
+        if (indicesRangoValidos) return;
+        long[] claves = new long[numActividades];
+        int[] posiciones = new int[numActividades];
+        int contador = 0;
+        for (int i = 0; i < numOcupadas; i++) {
+            Actividad actividad = tabla.actividad(i);
+            if (actividad != null) {
+                tabla.ponerValores(i, actividad.getPrecio(), actividad.getDuracionMinutos());
+                claves[contador] = IndiceOrdenado.clavePrecio(actividad.getPrecio());
+                posiciones[contador] = i;
+                contador++;
+            }
+        }
+        indicePrecios.reconstruir(claves, posiciones, contador);
+        for (int k = 0; k < contador; k++) {
+            claves[k] = tabla.duracion(posiciones[k]);
+        }
+        indiceDuraciones.reconstruir(claves, posiciones, contador);
+        indicesRangoValidos = true;
+    }
+
+    /**Descarta los índices de precio y duración antes de una carga masiva, para no pagar una
+     * inserción ordenada por actividad; se reconstruyen en la siguiente consulta de rango
+     */
+    private void suspenderIndicesRango() {
+        indicesRangoValidos = false;
+        indicePrecios = new IndiceOrdenado();
+        indiceDuraciones = new IndiceOrdenado();
+    }
+
+    /**Actualiza los índices de rango tras un cambio de precio o duración de una actividad observada
+     * @param actividad actividad modificada
+     */
+    private void actualizarValoresRango(Actividad actividad) {
+        ListaSecuencias propias = secuenciasPorActividad.get(actividad);
+        if (propias == null) return;
+        double precio = actividad.getPrecio();
+        int duracion = actividad.getDuracionMinutos();
+        for (int k = 0; k < propias.getTamano(); k++) {
+            int i = tabla.buscar(propias.obtener(k), numOcupadas);
+            if (indicesRangoValidos) {
+                if (Double.compare(tabla.precio(i), precio) != 0) {
+                    indicePrecios.quitar(IndiceOrdenado.clavePrecio(tabla.precio(i)), i);
+                    indicePrecios.agregar(IndiceOrdenado.clavePrecio(precio), i);
+                }
+                if (tabla.duracion(i) != duracion) {
+                    indiceDuraciones.quitar(tabla.duracion(i), i);
+                    indiceDuraciones.agregar(duracion, i);
+                }
+            }
+            tabla.ponerValores(i, precio, duracion);
+        }
+    }
+
+    /**Intersecta las listas de los trigramas del texto empezando por la más corta
+     * @param busqueda texto normalizado de al menos tres caracteres
+     * @return secuencias que contienen todos los trigramas, en orden de catálogo
+     */
+    private long[] candidatosTrigramas(String busqueda) {
+        ArrayList<ListaSecuencias> listas = new ArrayList<>();
+        for (int i = 0; i + 3 <= busqueda.length(); i++) {
+            ListaSecuencias lista = indiceTrigramas.get(busqueda.substring(i, i + 3));
+            if (lista == null) return new long[0];
+            if (!listas.contains(lista)) listas.add(lista);
+        }
+        listas.sort((a, b) -> Integer.compare(a.getTamano(), b.getTamano()));
+        ListaSecuencias menor = listas.get(0);
+        long[] candidatos = new long[menor.getTamano()];
+        int contador = 0;
+        for (int i = 0; i < menor.getTamano(); i++) {
+            long secuencia = menor.obtener(i);
+            boolean enTodas = true;
+            for (int j = 1; j < listas.size() && enTodas; j++) {
+                enTodas = listas.get(j).contiene(secuencia);
+            }
+            if (enTodas) {
+                candidatos[contador] = secuencia;
+                contador++;
+            }
+        }
+        return Arrays.copyOf(candidatos, contador);
+    }
+
     /**Guarda las actividades en un archivo txt
      * @param nombreArchivo nombre para el archivo de guardado
      * @throws IOException En caso de que halla un error al guardar el archivo da un mensaje y no para el codigo en su totalidad
@@ -119,9 +1261,9 @@ public class CatalogoActividades {
        BufferedWriter in = null;
         try {
             in = new BufferedWriter(new FileWriter(nombreArchivo));
-            for (int i = 0; i<this.numActividades; i++){
-                if(this.actividades[i] != null){
-                    String actividadesGuardadas = actividades[i].toRawString();
+            for (int i = 0; i<this.numOcupadas; i++){
+                if(tabla.actividad(i) != null){
+                    String actividadesGuardadas = tabla.actividad(i).toRawString();
                     in.write(actividadesGuardadas);
                 }
             }
@@ -133,31 +1275,392 @@ public class CatalogoActividades {
         }
     }
 
-    /**Carga las actividades desde un archivo txt
+    /**Carga las actividades desde un archivo txt. Los formatos incorrectos se muestran por consola
+     * con su número de línea; para recibirlos en un informe se usa la versión con juego de caracteres
      * @param nombreArchivo nombre del archivo desde el que se quiere cargar
      * @param maxRecursos Máximo de recursos permitidos
      * @param maxComentarios Maximo de cometarios permitidos
      * @throws IOException En caso de que halla un error al cargar el archivo da un mensaje y no para el codigo en su totalidad
      */
     public void cargarActividades(String nombreArchivo, int maxRecursos, int maxComentarios) throws IOException {
-        BufferedReader out = null;
-        boolean catalogoLleno = false;
+        System.out.print(cargarActividades(nombreArchivo, maxRecursos, maxComentarios, Charset.defaultCharset()));
+    }
+
+    /**Carga las actividades desde un archivo txt de una en una, en el orden del archivo, leyendo los
+     * textos con el juego de caracteres indicado. Los registros se leen con LectorRegistros, así que
+     * los formatos incorrectos se devuelven en el informe con su número de línea en lugar de
+     * imprimirse. Si el juego de caracteres no escribe los caracteres ASCII como un byte (UTF-16,
+     * por ejemplo), el archivo se decodifica con él y se pasa a UTF-8 antes de leerlo
+     * @param nombreArchivo nombre del archivo desde el que se quiere cargar
+     * @param maxRecursos Máximo de recursos permitidos
+     * @param maxComentarios Maximo de cometarios permitidos
+     * @param juego juego de caracteres del archivo
+     * @return informe de la carga
+     * @throws IOException si hay error al leer el archivo
+     */
+    public InformeCarga cargarActividades(String nombreArchivo, int maxRecursos, int maxComentarios,
+                                          Charset juego) throws IOException {
+        suspenderIndicesRango();
+        InformeCarga informe = new InformeCarga();
+        ByteBuffer bytes;
+        try (FileChannel canal = FileChannel.open(Paths.get(nombreArchivo), StandardOpenOption.READ)) {
+            bytes = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+        }
+        Charset juegoLector = juego;
+        if (!esCompatibleAscii(juego)) {
+            bytes = StandardCharsets.UTF_8.encode(juego.decode(bytes));
+            juegoLector = StandardCharsets.UTF_8;
+        }
+        LectorRegistros lector = new LectorRegistros(bytes, juegoLector);
+        Actividad actividad;
+        while (!informe.isCatalogoLleno() && (actividad = lector.siguiente(maxRecursos, maxComentarios, informe)) != null) {
+            informe.contar(agregarActividad(actividad));
+        }
+        return informe;
+    }
+
+    /**Carga las actividades desde un archivo txt repartiendo la lectura entre núcleos. El archivo se parte
+     * en trozos que acaban justo después de una línea "-----", cada trozo se lee en paralelo con las mismas
+     * reglas y límites que cargarActividades y las actividades se añaden en el orden del archivo.
+     * Si un trozo no acaba en un final de registro (porque esa línea "-----" era, por ejemplo, la
+     * descripción de una actividad) se vuelve a leer junto con el siguiente, así que el resultado es
+     * siempre el de la lectura secuencial. Los trozos se leen byte a byte con LectorRegistros y los
+     * formatos incorrectos no se imprimen, sino que se devuelven en el informe con su número de línea.
+     * El archivo se lee con el juego de caracteres por defecto, como hace cargarActividades
+     * @param nombreArchivo nombre del archivo desde el que se quiere cargar
+     * @param maxRecursos Máximo de recursos permitidos
+     * @param maxComentarios Maximo de cometarios permitidos
+     * @return informe de la carga
+     * @throws IOException si hay error al leer el archivo
+     */
+    public InformeCarga cargarActividadesParalelo(String nombreArchivo, int maxRecursos, int maxComentarios) throws IOException {
+        return cargarActividadesParalelo(nombreArchivo, maxRecursos, maxComentarios, Charset.defaultCharset());
+    }
+
+    /**Carga las actividades desde un archivo txt en paralelo, como cargarActividadesParalelo, leyendo los
+     * textos con el juego de caracteres indicado (por ejemplo UTF-8). Si el juego de caracteres no
+     * escribe los caracteres ASCII como un byte, el archivo no se puede partir por bytes y se carga
+     * de una vez con cargarActividades, que devuelve el mismo informe
+     * @param nombreArchivo nombre del archivo desde el que se quiere cargar
+     * @param maxRecursos Máximo de recursos permitidos
+     * @param maxComentarios Maximo de cometarios permitidos
+     * @param juego juego de caracteres del archivo
+     * @return informe de la carga
+     * @throws IOException si hay error al leer el archivo
+     */
+    public InformeCarga cargarActividadesParalelo(String nombreArchivo, int maxRecursos, int maxComentarios,
+                                                  Charset juego) throws IOException {
+        suspenderIndicesRango();
+        if (!esCompatibleAscii(juego)) {
+            return cargarActividades(nombreArchivo, maxRecursos, maxComentarios, juego);
+        }
+        InformeCarga informe = new InformeCarga();
+        try (FileChannel canal = FileChannel.open(Paths.get(nombreArchivo), StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            ArrayList<Long> fronteras = new ArrayList<>();
+            fronteras.add(0L);
+            long inicio = 0;
+            while (inicio < tamano) {
+                long fin = tamano - inicio <= TAMANO_TROZO_TEXTO ? tamano
+                        : siguienteFrontera(canal, inicio + TAMANO_TROZO_TEXTO, tamano);
+                fronteras.add(fin);
+                inicio = fin;
+            }
+            int numTrozos = fronteras.size() - 1;
+            if (numTrozos == 0) return informe;
+            ArrayList<ForkJoinTask<TrozoTexto>> tareas = new ArrayList<>();
+            for (int t = 0; t < numTrozos; t++) {
+                long desde = fronteras.get(t);
+                long hasta = fronteras.get(t + 1);
+                tareas.add(ForkJoinPool.commonPool().submit(() -> leerTrozo(canal, desde, hasta, juego, maxRecursos, maxComentarios)));
+            }
+            try {
+                TrozoTexto pendiente = esperarTrozo(tareas.get(0));
+                long inicioPendiente = 0;
+                long lineasAnteriores = 0;
+                for (int t = 1; t < numTrozos && !informe.isCatalogoLleno(); t++) {
+                    if (pendiente.terminado) {
+                        volcarTrozo(pendiente, lineasAnteriores, informe);
+                        lineasAnteriores += pendiente.numLineas;
+                        pendiente = esperarTrozo(tareas.get(t));
+                        inicioPendiente = fronteras.get(t);
+                    } else {
+                        tareas.get(t).cancel(false);
+                        pendiente = leerTrozo(canal, inicioPendiente, fronteras.get(t + 1), juego, maxRecursos, maxComentarios);
+                    }
+                }
+                if (!informe.isCatalogoLleno()) volcarTrozo(pendiente, lineasAnteriores, informe);
+            } finally {
+                for (ForkJoinTask<TrozoTexto> tarea : tareas) {
+                    tarea.cancel(false);
+                }
+            }
+        }
+        return informe;
+    }
+
+    /**Comprueba si un juego de caracteres escribe los caracteres ASCII como un único byte con
+     * su mismo valor, que es lo que necesitan LectorRegistros y el reparto en trozos
+     * @param juego juego de caracteres
+     * @return true si es compatible con ASCII
+     */
+    private static boolean esCompatibleAscii(Charset juego) {
+        return Arrays.equals("\n-".getBytes(juego), new byte[] {'\n', '-'});
+    }
+
+    /**
+     * Actividades leídas de un trozo del archivo de texto
+     */
+    private static class TrozoTexto {
+        private ArrayList<Actividad> actividades = new ArrayList<>();
+        private long[] ultimasLineas = new long[16];
+        private InformeCarga avisos = new InformeCarga();
+        private long numLineas;
+        private boolean terminado = true;
+    }
+
+    /**Busca el final de la primera línea "-----" completa que empieza a partir de una posición
+     * @param canal canal de lectura
+     * @param desde posición desde la que se busca
+     * @param tamano tamaño del archivo
+     * @return posición siguiente al salto de línea de esa línea, o el tamaño del archivo si no hay ninguna
+     * @throws IOException si hay error al leer
+     */
+    private static long siguienteFrontera(FileChannel canal, long desde, long tamano) throws IOException {
+        ByteBuffer bloque = ByteBuffer.allocate(TAMANO_BUFFER_ESCRITURA);
+        long posicion = desde - 1;
+        boolean descartando = true;
+        boolean invalida = false;
+        boolean trasGuiones = false;
+        int guiones = 0;
+        while (posicion < tamano) {
+            bloque.clear();
+            int leidos = canal.read(bloque, posicion);
+            if (leidos <= 0) break;
+            for (int k = 0; k < leidos; k++) {
+                int b = bloque.get(k) & 0xff;
+                if (b == '\n') {
+                    if (!descartando && !invalida && guiones == 5) return posicion + k + 1;
+                    descartando = false;
+                    invalida = false;
+                    trasGuiones = false;
+                    guiones = 0;
+                } else if (!descartando) {
+                    if (b <= ' ') {
+                        trasGuiones = guiones > 0;
+                    } else if (b == '-' && !trasGuiones) {
+                        guiones++;
+                    } else {
+                        invalida = true;
+                    }
+                }
+            }
+            posicion += leidos;
+        }
+        return tamano;
+    }
+
+    /**Lee todas las actividades de un trozo del archivo sin añadirlas al catálogo
+     * @param canal canal de lectura
+     * @param desde primera posición del trozo
+     * @param hasta posición siguiente a la última del trozo
+     * @param juego juego de caracteres del archivo
+     * @param maxRecursos Máximo de recursos permitidos
+     * @param maxComentarios Maximo de cometarios permitidos
+     * @return actividades del trozo, sus avisos con las líneas contadas desde el principio del trozo
+     *         y si la última acabó en "-----"
+     * @throws IOException si hay error al leer o el trozo no cabe en memoria
+     */
+    private static TrozoTexto leerTrozo(FileChannel canal, long desde, long hasta, Charset juego,
+                                        int maxRecursos, int maxComentarios) throws IOException {
+        if (hasta - desde > Integer.MAX_VALUE) {
+            throw new IOException("Registro de texto demasiado largo en la posición " + desde);
+        }
+        LectorRegistros lector = new LectorRegistros(canal.map(FileChannel.MapMode.READ_ONLY, desde, hasta - desde), juego);
+        TrozoTexto trozo = new TrozoTexto();
+        Actividad actividad;
+        while ((actividad = lector.siguiente(maxRecursos, maxComentarios, trozo.avisos)) != null) {
+            int n = trozo.actividades.size();
+            if (n == trozo.ultimasLineas.length) {
+                trozo.ultimasLineas = Arrays.copyOf(trozo.ultimasLineas, n * 2);
+            }
+            trozo.ultimasLineas[n] = lector.getNumLinea();
+            trozo.actividades.add(actividad);
+            trozo.terminado = lector.isTerminado();
+        }
+        trozo.numLineas = lector.getNumLinea();
+        return trozo;
+    }
+
+    /**Espera a que termine la lectura de un trozo
+     * @param tarea tarea de lectura
+     * @return trozo leído
+     * @throws IOException si la lectura falló o se interrumpió la espera
+     */
+    private static TrozoTexto esperarTrozo(ForkJoinTask<TrozoTexto> tarea) throws IOException {
         try {
-            out = new BufferedReader(new FileReader(nombreArchivo));
-            while (!catalogoLleno) {
-                Actividad nuevaActividad = Actividad.fromBufferedReader(out, maxRecursos, maxComentarios);
-                if (nuevaActividad == null) {
+            return tarea.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Carga interrumpida");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**Añade al catálogo las actividades de un trozo en orden y pasa al informe sus avisos hasta la
+     * última actividad leída, como haría la lectura secuencial
+     * @param trozo trozo leído
+     * @param lineasAnteriores número de líneas del archivo anteriores al trozo
+     * @param informe informe de la carga
+     */
+    private void volcarTrozo(TrozoTexto trozo, long lineasAnteriores, InformeCarga informe) {
+        long ultimaLinea = trozo.numLineas;
+        for (int i = 0; i < trozo.actividades.size(); i++) {
+            informe.contar(agregarActividad(trozo.actividades.get(i)));
+            if (informe.isCatalogoLleno()) {
+                ultimaLinea = trozo.ultimasLineas[i];
+                break;
+            }
+        }
+        informe.anotarTodos(trozo.avisos, lineasAnteriores, ultimaLinea);
+    }
+
+    /**Guarda las actividades en formato binario: una cabecera (número mágico, versión, número de
+     * registros y posición de la tabla), los registros de Actividad.toBinario precedidos de su
+     * longitud y al final una tabla con la posición de cada registro
+     * @param nombreArchivo nombre para el archivo de guardado
+     * @throws IOException si hay error al escribir el archivo
+     */
+    public void guardarActividadesBinario(String nombreArchivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(Paths.get(nombreArchivo), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(TAMANO_BUFFER_ESCRITURA);
+            long[] posiciones = new long[numActividades];
+            long posicion = TAMANO_CABECERA;
+            int numRegistros = 0;
+            canal.position(TAMANO_CABECERA);
+            for (int i = 0; i < numOcupadas; i++) {
+                if (tabla.actividad(i) != null) {
+                    byte[] registro = tabla.actividad(i).toBinario();
+                    posiciones[numRegistros] = posicion;
+                    numRegistros++;
+                    buffer = escribirEnCanal(canal, buffer, Integer.BYTES + registro.length);
+                    buffer.putInt(registro.length).put(registro);
+                    posicion += Integer.BYTES + registro.length;
+                }
+            }
+            for (int i = 0; i < numRegistros; i++) {
+                buffer = escribirEnCanal(canal, buffer, Long.BYTES);
+                buffer.putLong(posiciones[i]);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) canal.write(buffer);
+            ByteBuffer cabecera = ByteBuffer.allocate(TAMANO_CABECERA);
+            cabecera.putInt(MAGICO_BINARIO).putInt(VERSION_BINARIO).putInt(numRegistros).putInt(0).putLong(posicion);
+            cabecera.flip();
+            while (cabecera.hasRemaining()) canal.write(cabecera, TAMANO_CABECERA - cabecera.remaining());
+        }
+    }
+
+    /**Vacía el buffer en el canal si no caben los bytes indicados
+     * @param canal canal de escritura
+     * @param buffer buffer de escritura
+     * @param necesarios bytes que se van a añadir
+     * @return buffer con sitio para los bytes (uno mayor si no caben en el normal)
+     * @throws IOException si hay error al escribir
+     */
+    private static ByteBuffer escribirEnCanal(FileChannel canal, ByteBuffer buffer, int necesarios) throws IOException {
+        if (buffer.remaining() >= necesarios) return buffer;
+        buffer.flip();
+        while (buffer.hasRemaining()) canal.write(buffer);
+        buffer.clear();
+        return necesarios <= buffer.capacity() ? buffer : ByteBuffer.allocate(necesarios);
+    }
+
+    /**Carga las actividades desde un archivo binario de guardarActividadesBinario. El archivo se
+     * proyecta en memoria por ventanas con FileChannel.map, así que no se copia entero ni se parte en líneas
+     * @param nombreArchivo nombre del archivo desde el que se quiere cargar
+     * @param maxRecursos Máximo de recursos permitidos
+     * @param maxComentarios Maximo de cometarios permitidos
+     * @throws IOException si hay error al leer el archivo o no tiene el formato esperado
+     */
+    public void cargarActividadesBinario(String nombreArchivo, int maxRecursos, int maxComentarios) throws IOException {
+        cargarActividadesBinario(nombreArchivo, maxRecursos, maxComentarios, CARGA_COMPLETA);
+    }
+
+    /**Carga las actividades desde un archivo binario con el modo indicado. En los modos diferidos
+     * cada actividad guarda solo nombre, precio y duración y una referencia al archivo proyectado,
+     * que se mantiene mientras existan las actividades; el archivo no debe modificarse entretanto
+     * @param nombreArchivo nombre del archivo desde el que se quiere cargar
+     * @param maxRecursos Máximo de recursos permitidos
+     * @param maxComentarios Maximo de cometarios permitidos
+     * @param modo CARGA_COMPLETA, CARGA_DIFERIDA o CARGA_DIFERIDA_CACHE
+     * @throws IOException si hay error al leer el archivo o no tiene el formato esperado
+     */
+    public void cargarActividadesBinario(String nombreArchivo, int maxRecursos, int maxComentarios, int modo) throws IOException {
+        suspenderIndicesRango();
+        try (FileChannel canal = FileChannel.open(Paths.get(nombreArchivo), StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            if (tamano < TAMANO_CABECERA) throw new IOException("El archivo " + nombreArchivo + " no es un catálogo binario");
+            MappedByteBuffer cabecera = canal.map(FileChannel.MapMode.READ_ONLY, 0, TAMANO_CABECERA);
+            if (cabecera.getInt() != MAGICO_BINARIO) throw new IOException("El archivo " + nombreArchivo + " no es un catálogo binario");
+            int version = cabecera.getInt();
+            if (version != VERSION_BINARIO) throw new IOException("Versión de catálogo binario no soportada: " + version);
+            int numRegistros = cabecera.getInt();
+            cabecera.getInt();
+            long posicionTabla = cabecera.getLong();
+            if (numRegistros < 0 || posicionTabla + (long) numRegistros * Long.BYTES > tamano) {
+                throw new IOException("El archivo " + nombreArchivo + " está incompleto");
+            }
+            VentanaArchivo tablaRegistros = new VentanaArchivo(canal, tamano);
+            VentanaArchivo registros = new VentanaArchivo(canal, posicionTabla);
+            boolean catalogoLleno = false;
+            for (int r = 0; r < numRegistros && !catalogoLleno; r++) {
+                long posicion = tablaRegistros.colocar(posicionTabla + (long) r * Long.BYTES, Long.BYTES).getLong();
+                int longitud = registros.colocar(posicion, Integer.BYTES).getInt();
+                ByteBuffer registro = registros.colocar(posicion, Integer.BYTES + longitud);
+                registro.getInt();
+                Actividad actividad = modo == CARGA_COMPLETA ? Actividad.fromBinario(registro, maxRecursos, maxComentarios)
+                        : Actividad.fromBinarioDiferido(registro, registro.position(), maxRecursos, maxComentarios, modo == CARGA_DIFERIDA_CACHE);
+                if (agregarActividad(actividad) == ERROR_DEMASIADOS) {
                     catalogoLleno = true;
                 }
-                int resultado = this.agregarActividad(nuevaActividad);
-                if (resultado == ERROR_DEMASIADOS) {
-                    catalogoLleno = true;}
             }
         }
-        finally {
-            if (out != null) {
-                out.close();
+    }
+
+    /**
+     * Proyección en memoria de una parte de un archivo que se desplaza a medida que se lee
+     */
+    private static class VentanaArchivo {
+        private FileChannel canal;
+        private long limite;
+        private MappedByteBuffer buffer;
+        private long inicio;
+
+        VentanaArchivo(FileChannel canal, long limite) {
+            this.canal = canal;
+            this.limite = limite;
+        }
+
+        /**Proyecta, si no lo está ya, el tramo indicado y deja el buffer colocado en su principio
+         * @param posicion posición en el archivo
+         * @param bytes bytes que se van a leer
+         * @return buffer colocado
+         * @throws IOException si el tramo se sale de la zona del archivo o hay error al proyectar
+         */
+        ByteBuffer colocar(long posicion, int bytes) throws IOException {
+            if (posicion < 0 || bytes < 0 || posicion + bytes > limite) {
+                throw new IOException("Registro fuera del archivo en la posición " + posicion);
+            }
+            if (buffer == null || posicion < inicio || posicion + bytes > inicio + buffer.capacity()) {
+                inicio = posicion;
+                buffer = canal.map(FileChannel.MapMode.READ_ONLY, posicion, Math.max(bytes, Math.min(TAMANO_VENTANA, limite - posicion)));
             }
+            buffer.position((int) (posicion - inicio));
+            return buffer;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,456 @@
+package es.upm;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Variante de CatalogoActividades que pueden leer muchos hilos mientras otro escribe.
+ * Guarda dos instancias iguales del catálogo: las lecturas usan la activa sin tomar
+ * cerrojos y cada escritura se aplica primero a la otra, se cambia cuál es la activa y,
+ * cuando terminan las lecturas que aún usaban la anterior, se repite sobre ella. Así una
+ * lectura nunca ve una escritura a medias y una escritura suelta cuesta lo mismo que en
+ * CatalogoActividades (dos veces), sin copiar el catálogo entero.
+ * Las escrituras esperan a que acaben las lecturas en curso, por lo que una lectura larga
+ * (como guardarActividades) retrasa a los escritores pero no a otros lectores. Las cargas
+ * de archivo se hacen sobre una instancia y la otra se copia de ella al final.
+ * Los cambios de precio o duración de una actividad ya añadida no se reflejan en las
+ * búsquedas por rango hasta que la actividad se vuelve a añadir o se carga de nuevo.
+ * @author Sara Paloma Martínez-Tizón García, BW0100
+ */
+public class CatalogoConcurrente {
+    private static final int CESIONES_ANTES_DE_DORMIR = 16;
+    private static final long ESPERA_LECTORES_NANOS = 10_000;
+    private final ReentrantLock cerrojoEscritura;
+    private final CatalogoActividades[] instancias;
+    private final AtomicInteger[] lectores;
+    private volatile int activa;
+    private volatile int indicadorLectura;
+    private volatile long version;
+
+    /**
+     * Crea un catálogo concurrente sin límite de actividades
+     */
+    public CatalogoConcurrente() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Crea un catálogo concurrente vacío
+     * @param maxActividades Numero máximo de actividades pertimidas
+     */
+    public CatalogoConcurrente(int maxActividades) {
+        CatalogoActividades vacio = new CatalogoActividades(maxActividades);
+        this.cerrojoEscritura = new ReentrantLock();
+        this.instancias = new CatalogoActividades[2];
+        this.lectores = new AtomicInteger[2];
+        for (int i = 0; i < 2; i++) {
+            instancias[i] = new CatalogoActividades(vacio, false);
+            instancias[i].prepararLecturas();
+            lectores[i] = new AtomicInteger();
+        }
+        this.activa = 0;
+        this.indicadorLectura = 0;
+        this.version = 0;
+    }
+
+    /**Devuelve cuántas escrituras con cambios se han publicado desde que se creó el catálogo
+     * @return atributo version
+     */
+    public long getVersion() {
+        return version;}
+
+    /**Devuelve el número de actividades de la instancia activa
+     * @return número de actividades
+     */
+    public int getNumActividades() {
+        int indicador = entrar();
+        try {
+            return instancias[activa].getNumActividades();
+        } finally {
+            salir(indicador);
+        }
+    }
+
+    /**
+     * Añade una actividad
+     * @param actividad actividad a agregar
+     * @return código del resultado de CatalogoActividades.agregarActividad
+     */
+    public int agregarActividad(Actividad actividad) {
+        return agregarActividades(new Actividad[] {actividad})[0];
+    }
+
+    /**
+     * Añade un lote de actividades, que las lecturas ven a la vez
+     * @param nuevas actividades a agregar
+     * @return código del resultado de cada actividad, en el mismo orden
+     */
+    public int[] agregarActividades(Actividad[] nuevas) {
+        int[] resultados = new int[nuevas.length];
+        cerrojoEscritura.lock();
+        try {
+            aplicar(catalogo -> {
+                for (int i = 0; i < nuevas.length; i++) {
+                    resultados[i] = catalogo.agregarActividad(nuevas[i]);
+                }
+            });
+        } finally {
+            cerrojoEscritura.unlock();
+        }
+        return resultados;
+    }
+
+    /**
+     * Elimina una actividad (todas sus apariciones)
+     * @param seleccionada actividad seleccionada para eliminar
+     * @return true si se elimina, false si no estaba
+     */
+    public boolean eliminarActividad(Actividad seleccionada) {
+        return eliminarActividades(new Actividad[] {seleccionada}) == 1;
+    }
+
+    /**
+     * Elimina un lote de actividades, que las lecturas dejan de ver a la vez
+     * @param seleccionadas actividades que se quieren eliminar
+     * @return número de actividades del array que estaban en el catálogo
+     */
+    public int eliminarActividades(Actividad[] seleccionadas) {
+        cerrojoEscritura.lock();
+        try {
+            CatalogoActividades libre = instancias[1 - activa];
+            int eliminadas = libre.eliminarActividades(seleccionadas);
+            if (eliminadas > 0) {
+                libre.prepararLecturas();
+                cambiarActiva();
+                instancias[1 - activa].eliminarActividades(seleccionadas);
+                instancias[1 - activa].prepararLecturas();
+            }
+            return eliminadas;
+        } finally {
+            cerrojoEscritura.unlock();
+        }
+    }
+
+    /**
+     * Carga las actividades de un archivo txt como un único lote. Las lecturas siguen viendo
+     * el catálogo anterior hasta que termina la carga
+     * @param nombreArchivo nombre del archivo desde el que se quiere cargar
+     * @param maxRecursos Máximo de recursos permitidos
+     * @param maxComentarios Maximo de cometarios permitidos
+     * @throws IOException si hay error al leer el archivo; en ese caso no se publica nada
+     */
+    public void cargarActividades(String nombreArchivo, int maxRecursos, int maxComentarios) throws IOException {
+        cerrojoEscritura.lock();
+        try {
+            CatalogoActividades libre = instancias[1 - activa];
+            try {
+                libre.cargarActividades(nombreArchivo, maxRecursos, maxComentarios);
+            } catch (IOException e) {
+                descartarLibre();
+                throw e;
+            }
+            publicarCarga();
+        } finally {
+            cerrojoEscritura.unlock();
+        }
+    }
+
+    /**
+     * Carga las actividades de un archivo txt con el juego de caracteres indicado como un único lote
+     * @param nombreArchivo nombre del archivo desde el que se quiere cargar
+     * @param maxRecursos Máximo de recursos permitidos
+     * @param maxComentarios Maximo de cometarios permitidos
+     * @param juego juego de caracteres del archivo
+     * @return informe de la carga, con los registros mal formados
+     * @throws IOException si hay error al leer el archivo; en ese caso no se publica nada
+     */
+    public InformeCarga cargarActividades(String nombreArchivo, int maxRecursos, int maxComentarios,
+                                          Charset juego) throws IOException {
+        cerrojoEscritura.lock();
+        try {
+            CatalogoActividades libre = instancias[1 - activa];
+            InformeCarga informe;
+            try {
+                informe = libre.cargarActividades(nombreArchivo, maxRecursos, maxComentarios, juego);
+            } catch (IOException e) {
+                descartarLibre();
+                throw e;
+            }
+            publicarCarga();
+            return informe;
+        } finally {
+            cerrojoEscritura.unlock();
+        }
+    }
+
+    /**
+     * Carga las actividades de un archivo txt en paralelo como un único lote
+     * @param nombreArchivo nombre del archivo desde el que se quiere cargar
+     * @param maxRecursos Máximo de recursos permitidos
+     * @param maxComentarios Maximo de cometarios permitidos
+     * @return informe de la carga, con los registros mal formados
+     * @throws IOException si hay error al leer el archivo; en ese caso no se publica nada
+     */
+    public InformeCarga cargarActividadesParalelo(String nombreArchivo, int maxRecursos, int maxComentarios) throws IOException {
+        cerrojoEscritura.lock();
+        try {
+            CatalogoActividades libre = instancias[1 - activa];
+            InformeCarga informe;
+            try {
+                informe = libre.cargarActividadesParalelo(nombreArchivo, maxRecursos, maxComentarios);
+            } catch (IOException e) {
+                descartarLibre();
+                throw e;
+            }
+            publicarCarga();
+            return informe;
+        } finally {
+            cerrojoEscritura.unlock();
+        }
+    }
+
+    /**
+     * Carga las actividades de un archivo binario como un único lote
+     * @param nombreArchivo nombre del archivo desde el que se quiere cargar
+     * @param maxRecursos Máximo de recursos permitidos
+     * @param maxComentarios Maximo de cometarios permitidos
+     * @throws IOException si hay error al leer el archivo; en ese caso no se publica nada
+     */
+    public void cargarActividadesBinario(String nombreArchivo, int maxRecursos, int maxComentarios) throws IOException {
+        cargarActividadesBinario(nombreArchivo, maxRecursos, maxComentarios, CatalogoActividades.CARGA_COMPLETA);
+    }
+
+    /**
+     * Carga las actividades de un archivo binario como un único lote, con el modo indicado
+     * @param nombreArchivo nombre del archivo desde el que se quiere cargar
+     * @param maxRecursos Máximo de recursos permitidos
+     * @param maxComentarios Maximo de cometarios permitidos
+     * @param modo modo de carga de CatalogoActividades (completa, diferida o diferida con caché)
+     * @throws IOException si hay error al leer el archivo; en ese caso no se publica nada
+     */
+    public void cargarActividadesBinario(String nombreArchivo, int maxRecursos, int maxComentarios, int modo) throws IOException {
+        cerrojoEscritura.lock();
+        try {
+            CatalogoActividades libre = instancias[1 - activa];
+            try {
+                libre.cargarActividadesBinario(nombreArchivo, maxRecursos, maxComentarios, modo);
+            } catch (IOException e) {
+                descartarLibre();
+                throw e;
+            }
+            publicarCarga();
+        } finally {
+            cerrojoEscritura.unlock();
+        }
+    }
+
+    /**
+     * Aplica una escritura a las dos instancias: primero a la que no leen los lectores, después
+     * se cambia la activa y, cuando ya nadie lee la anterior, se aplica también a ella.
+     * Se llama con el cerrojo de escritura tomado
+     * @param escritura operación, que debe dar el mismo resultado sobre las dos instancias
+     */
+    private void aplicar(Consumer<CatalogoActividades> escritura) {
+        CatalogoActividades libre = instancias[1 - activa];
+        escritura.accept(libre);
+        libre.prepararLecturas();
+        cambiarActiva();
+        escritura.accept(instancias[1 - activa]);
+        instancias[1 - activa].prepararLecturas();
+    }
+
+    /**
+     * Publica una carga ya hecha sobre la instancia libre y rehace la otra copiándola.
+     * Se llama con el cerrojo de escritura tomado
+     */
+    private void publicarCarga() {
+        instancias[1 - activa].prepararLecturas();
+        cambiarActiva();
+        descartarLibre();
+    }
+
+    /**
+     * Rehace la instancia libre como copia de la activa, por ejemplo tras una carga fallida.
+     * Se llama con el cerrojo de escritura tomado y sin lectores en la instancia libre
+     */
+    private void descartarLibre() {
+        CatalogoActividades copia = new CatalogoActividades(instancias[activa], false);
+        copia.prepararLecturas();
+        instancias[1 - activa] = copia;
+    }
+
+    /**
+     * Hace activa la instancia libre y espera a que terminen las lecturas que aún usaban la
+     * anterior. Los lectores se cuentan en dos indicadores: se espera a que se vacíe el que no
+     * está en uso, se pasa a él a los lectores nuevos y se espera a que se vacíe el otro
+     */
+    private void cambiarActiva() {
+        activa = 1 - activa;
+        version++;
+        int anterior = indicadorLectura;
+        esperarLectores(1 - anterior);
+        indicadorLectura = 1 - anterior;
+        esperarLectores(anterior);
+    }
+
+    /**
+     * Espera a que no quede ningún lector contado en un indicador. Las lecturas suelen ser
+     * cortas, así que primero se cede el procesador y solo después se duerme un momento
+     * @param indicador indicador de lectura
+     */
+    private void esperarLectores(int indicador) {
+        for (int intento = 0; lectores[indicador].get() != 0; intento++) {
+            if (intento < CESIONES_ANTES_DE_DORMIR) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(ESPERA_LECTORES_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Anota el comienzo de una lectura
+     * @return indicador en el que se ha contado, que se pasa a salir
+     */
+    private int entrar() {
+        int indicador = indicadorLectura;
+        lectores[indicador].incrementAndGet();
+        return indicador;
+    }
+
+    /**
+     * Anota el final de una lectura
+     * @param indicador indicador devuelto por entrar
+     */
+    private void salir(int indicador) {
+        lectores[indicador].decrementAndGet();
+    }
+
+    /**Busca la actividad cuyo nombre coincide exactamente con el indicado, sin bloquear
+     * @param nombre nombre exacto de la actividad
+     * @return actividad o null si no hay ninguna
+     */
+    public Actividad buscarActividadExacta(String nombre) {
+        int indicador = entrar();
+        try {
+            return instancias[activa].buscarActividadExacta(nombre);
+        } finally {
+            salir(indicador);
+        }
+    }
+
+    /**Busca las actividades cuyo nombre contiene el texto, sin bloquear
+     * @param texto Texto que hay que buscar en la actividad
+     * @return actividades encontradas, en orden de catálogo
+     */
+    public Actividad[] buscarActividadPorNombre(String texto) {
+        int indicador = entrar();
+        try {
+            return instancias[activa].buscarActividadPorNombre(texto);
+        } finally {
+            salir(indicador);
+        }
+    }
+
+    /**Devuelve una página de la búsqueda por nombre, sin bloquear
+     * @param texto Texto que hay que buscar en la actividad
+     * @param desde número de coincidencias que se saltan
+     * @param limite número máximo de actividades devueltas
+     * @return actividades de la página, en orden de catálogo
+     */
+    public Actividad[] buscarActividadPorNombre(String texto, int desde, int limite) {
+        int indicador = entrar();
+        try {
+            return instancias[activa].buscarActividadPorNombre(texto, desde, limite);
+        } finally {
+            salir(indicador);
+        }
+    }
+
+    /**Recorre las coincidencias de la búsqueda por nombre. Como las instancias se modifican
+     * después de cada escritura, las coincidencias se calculan al llamar y el iterador no cambia
+     * aunque haya escrituras mientras se usa
+     * @param texto Texto que hay que buscar en la actividad
+     * @return iterador de las actividades encontradas
+     */
+    public Iterator<Actividad> iterarActividadesPorNombre(String texto) {
+        return Arrays.asList(buscarActividadPorNombre(texto)).iterator();
+    }
+
+    /**Devuelve las actividades más relevantes para el texto, sin bloquear
+     * @param texto Texto que hay que buscar en la actividad
+     * @param limite número máximo de actividades devueltas
+     * @return actividades encontradas, de más a menos relevante
+     */
+    public Actividad[] buscarMejoresPorNombre(String texto, int limite) {
+        int indicador = entrar();
+        try {
+            return instancias[activa].buscarMejoresPorNombre(texto, limite);
+        } finally {
+            salir(indicador);
+        }
+    }
+
+    /**Busca las actividades cuyo nombre contiene el texto con algunos errores, sin bloquear
+     * @param texto Texto que hay que buscar en la actividad
+     * @param maxDistancia número máximo de errores permitidos
+     * @return actividades encontradas, de menos a más errores
+     */
+    public Actividad[] buscarActividadAproximada(String texto, int maxDistancia) {
+        int indicador = entrar();
+        try {
+            return instancias[activa].buscarActividadAproximada(texto, maxDistancia);
+        } finally {
+            salir(indicador);
+        }
+    }
+
+    /**Busca las actividades cuya descripción contiene el texto, sin bloquear
+     * @param texto Texto que hay que buscar en la descripción
+     * @return actividades encontradas, en orden de catálogo
+     */
+    public Actividad[] buscarActividadPorDescripcion(String texto) {
+        int indicador = entrar();
+        try {
+            return instancias[activa].buscarActividadPorDescripcion(texto);
+        } finally {
+            salir(indicador);
+        }
+    }
+
+    /**Busca las actividades que cumplen a la vez un rango de precio y uno de duración, sin bloquear
+     * @param precioMinimo precio mínimo
+     * @param precioMaximo precio máximo
+     * @param duracionMinima duración mínima en minutos
+     * @param duracionMaxima duración máxima en minutos
+     * @return actividades encontradas, en orden de catálogo
+     */
+    public Actividad[] buscarPorPrecioYDuracion(double precioMinimo, double precioMaximo, int duracionMinima, int duracionMaxima) {
+        int indicador = entrar();
+        try {
+            return instancias[activa].buscarPorPrecioYDuracion(precioMinimo, precioMaximo, duracionMinima, duracionMaxima);
+        } finally {
+            salir(indicador);
+        }
+    }
+
+    /**Guarda el catálogo en un archivo txt. No bloquea a otros lectores, pero los escritores
+     * esperan a que termine
+     * @param nombreArchivo nombre para el archivo de guardado
+     * @throws IOException si hay error al escribir el archivo
+     */
+    public void guardarActividades(String nombreArchivo) throws IOException {
+        int indicador = entrar();
+        try {
+            instancias[activa].guardarActividades(nombreArchivo);
+        } finally {
+            salir(indicador);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package es.upm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Registro de muchos viajes que comparten un mismo catálogo de actividades.
+ * Los viajes guardan referencias a los objetos Actividad del catálogo, sin copiarlos,
+ * y sus días vacíos no ocupan memoria. Mantiene además un índice inverso de cada
+ * actividad a los viajes que la usan, por lo que las modificaciones de los viajes
+ * registrados deben hacerse a través del gestor.
+ * @author Kai Wei Jiang Xu, BW0067
+ */
+public class GestorViajes {
+
+    /**
+     * Valor de error si no existe ningún viaje con ese identificador (5).
+     * Sigue a los códigos de Viaje para poder devolverse junto a ellos
+     */
+    public static final int ERROR_VIAJE_INEXISTENTE = 5;
+    /**
+     * Extensión de los ficheros de itinerario que usan guardarViajes y cargarViajes
+     */
+    public static final String EXTENSION = ".itinerario";
+
+    private CatalogoActividades catalogo;
+    private HashMap<String, Viaje> viajes;
+    private IdentityHashMap<Actividad, HashMap<String, Integer>> usos;
+
+    /**
+     * Crea un gestor vacío
+     * @param catalogo catálogo compartido por todos los viajes
+     */
+    public GestorViajes(CatalogoActividades catalogo) {
+        this.catalogo = catalogo;
+        this.viajes = new HashMap<>();
+        this.usos = new IdentityHashMap<>();
+    }
+
+    /**
+     * Devuelve el número de viajes registrados
+     * @return número de viajes
+     */
+    public int getNumViajes() {
+        return viajes.size();
+    }
+
+    /**
+     * Crea y registra un viaje vacío
+     * @param id identificador del viaje
+     * @param numDias número de días del viaje
+     * @param maxActividadesPorDia máximo de actividades por día
+     * @return viaje creado o null si ya existe un viaje con ese identificador
+     */
+    public Viaje crearViaje(String id, int numDias, int maxActividadesPorDia) {
+        Viaje viaje = new Viaje(numDias, maxActividadesPorDia);
+        return registrarViaje(id, viaje) ? viaje : null;
+    }
+
+    /**
+     * Registra un viaje ya existente e indexa sus actividades
+     * @param id identificador del viaje
+     * @param viaje viaje que se registra
+     * @return true si se registra, false si ya existe un viaje con ese identificador
+     */
+    public boolean registrarViaje(String id, Viaje viaje) {
+        if (viajes.containsKey(id)) {
+            return false;
+        }
+        viajes.put(id, viaje);
+        for (int d = 0; d < viaje.getNumDias(); d++) {
+            for (Actividad act : viaje.obtenerActividadesDia(d)) {
+                anotarUso(act, id, 1);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Devuelve el viaje con el identificador indicado
+     * @param id identificador del viaje
+     * @return viaje o null si no existe
+     */
+    public Viaje obtenerViaje(String id) {
+        return viajes.get(id);
+    }
+
+    /**
+     * Quita un viaje del registro y del índice inverso
+     * @param id identificador del viaje
+     * @return true si se elimina, false si no existía
+     */
+    public boolean eliminarViaje(String id) {
+        Viaje viaje = viajes.remove(id);
+        if (viaje == null) {
+            return false;
+        }
+        for (int d = 0; d < viaje.getNumDias(); d++) {
+            for (Actividad act : viaje.obtenerActividadesDia(d)) {
+                anotarUso(act, id, -1);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Añade una actividad a un viaje registrado y actualiza el índice inverso
+     * @param id identificador del viaje
+     * @param dia número de día
+     * @param actividad actividad a añadir
+     * @param horaInicio hora en formato HH:MM
+     * @return código de resultado de Viaje.agregarActividad o viaje inexistente
+     */
+    public int agregarActividad(String id, int dia, Actividad actividad, String horaInicio) {
+        Viaje viaje = viajes.get(id);
+        if (viaje == null) {
+            return ERROR_VIAJE_INEXISTENTE;
+        }
+        int resultado = viaje.agregarActividad(dia, actividad, horaInicio);
+        if (resultado == Viaje.EXITO) {
+            anotarUso(actividad, id, 1);
+        }
+        return resultado;
+    }
+
+    /**
+     * Elimina una actividad de un viaje registrado y actualiza el índice inverso
+     * @param id identificador del viaje
+     * @param dia día del viaje
+     * @param horaInicio hora en formato HH:MM
+     * @return true si se elimina, false en caso contrario
+     */
+    public boolean eliminarActividad(String id, int dia, String horaInicio) {
+        Viaje viaje = viajes.get(id);
+        if (viaje == null) {
+            return false;
+        }
+        Actividad actividad = viaje.obtenerActividad(dia, horaInicio);
+        if (actividad == null || !viaje.eliminarActividad(dia, horaInicio)) {
+            return false;
+        }
+        anotarUso(actividad, id, -1);
+        return true;
+    }
+
+    /**
+     * Devuelve los viajes que usan una actividad, sin recorrer todos los viajes
+     * @param actividad actividad buscada (se compara por identidad)
+     * @return identificadores de los viajes que la usan
+     */
+    public String[] viajesConActividad(Actividad actividad) {
+        HashMap<String, Integer> ids = usos.get(actividad);
+        if (ids == null) {
+            return new String[0];
+        }
+        return ids.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * Elimina una actividad del catálogo y de todos los viajes que la usan.
+     * Solo se recorren los viajes afectados
+     * @param actividad actividad que se quiere eliminar
+     * @return identificadores de los viajes afectados
+     */
+    public String[] eliminarActividadCatalogo(Actividad actividad) {
+        catalogo.eliminarActividad(actividad);
+        String[] afectados = viajesConActividad(actividad);
+        for (String id : afectados) {
+            viajes.get(id).eliminarActividad(actividad);
+        }
+        usos.remove(actividad);
+        return afectados;
+    }
+
+    /**
+     * Suma o resta usos de una actividad en un viaje dentro del índice inverso
+     * @param actividad actividad usada
+     * @param id identificador del viaje
+     * @param cambio número de usos que se añaden (negativo para quitar)
+     */
+    private void anotarUso(Actividad actividad, String id, int cambio) {
+        HashMap<String, Integer> ids = usos.computeIfAbsent(actividad, k -> new HashMap<>());
+        int total = ids.getOrDefault(id, 0) + cambio;
+        if (total > 0) {
+            ids.put(id, total);
+        } else {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                usos.remove(actividad);
+            }
+        }
+    }
+
+    /**
+     * Guarda cada viaje en un fichero "id.itinerario" dentro de un directorio.
+     * Los identificadores deben poder usarse como nombre de fichero
+     * @param directorio directorio de destino (se crea si no existe)
+     * @throws IOException si hay error al escribir algún fichero
+     */
+    public void guardarViajes(String directorio) throws IOException {
+        File carpeta = new File(directorio);
+        if (!carpeta.isDirectory() && !carpeta.mkdirs()) {
+            throw new IOException("No se puede crear el directorio " + directorio);
+        }
+        for (Map.Entry<String, Viaje> entrada : viajes.entrySet()) {
+            entrada.getValue().guardarItinerario(new File(carpeta, entrada.getKey() + EXTENSION).getPath());
+        }
+    }
+
+    /**
+     * Carga y registra todos los ficheros "id.itinerario" de un directorio,
+     * resolviendo las actividades contra el catálogo compartido.
+     * Los identificadores que ya estén registrados se omiten
+     * @param directorio directorio de origen
+     * @param maxActividadesPorDia máximo de actividades por día de los viajes cargados
+     * @return número de viajes cargados
+     * @throws IOException si hay error al leer algún fichero
+     */
+    public int cargarViajes(String directorio, int maxActividadesPorDia) throws IOException {
+        File[] ficheros = new File(directorio).listFiles();
+        if (ficheros == null) {
+            throw new IOException("No se puede leer el directorio " + directorio);
+        }
+        int cargados = 0;
+        for (File fichero : ficheros) {
+            String nombre = fichero.getName();
+            if (fichero.isFile() && nombre.endsWith(EXTENSION)) {
+                String id = nombre.substring(0, nombre.length() - EXTENSION.length());
+                if (!viajes.containsKey(id)) {
+                    registrarViaje(id, Viaje.cargarItinerario(fichero.getPath(), catalogo, maxActividadesPorDia));
+                    cargados++;
+                }
+            }
+        }
+        return cargados;
+    }
+}
@@ -0,0 +1,307 @@
+package es.upm;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Índice de posiciones del catálogo ordenado por una clave numérica (precio o duración).
+ * Las entradas se ordenan por clave y, a igual clave, por posición, así que cada entrada
+ * se localiza por búsqueda binaria.
+ * Para que altas y bajas no desplacen todo el array, las bajas solo marcan la entrada
+ * como muerta (y las consultas la saltan) y las altas van a una lista pequeña de entradas
+ * nuevas, también ordenada. La lista se mezcla con el índice principal cuando crece
+ * más que la raíz del tamaño, y las muertas se quitan cuando son la mitad o al compactar
+ * el catálogo, así que el coste de mantenimiento se reparte entre muchas operaciones.
+ * @author Sara Paloma Martínez-Tizón García, BW0100
+ */
+class IndiceOrdenado {
+    private static final int NUEVAS_MINIMAS = 64;
+
+    private long[] claves;
+    private int[] posiciones;
+    private int tamano;
+    private BitSet muertas;
+    private int[] muertasAcumuladas;
+    private int numMuertas;
+    private long[] clavesNuevas;
+    private int[] posicionesNuevas;
+    private int numNuevas;
+
+    /**
+     * Crea un índice vacío
+     */
+    IndiceOrdenado() {
+        this.claves = new long[4];
+        this.posiciones = new int[4];
+        this.tamano = 0;
+        this.muertas = new BitSet();
+        this.muertasAcumuladas = new int[5];
+        this.clavesNuevas = new long[NUEVAS_MINIMAS];
+        this.posicionesNuevas = new int[NUEVAS_MINIMAS];
+    }
+
+    /**
+     * Convierte un precio en una clave cuyo orden como long es el de Double.compare
+     * @param precio precio
+     * @return clave ordenable
+     */
+    static long clavePrecio(double precio) {
+        long bits = Double.doubleToLongBits(precio);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    /**
+     * Devuelve el número de entradas vivas
+     * @return tamaño del índice
+     */
+    int getTamano() {
+        return tamano - numMuertas + numNuevas; }
+
+    /**
+     * Añade una entrada
+     * @param clave clave de la actividad
+     * @param posicion posición de la actividad en el catálogo
+     */
+    void agregar(long clave, int posicion) {
+        if (numNuevas == clavesNuevas.length) {
+            clavesNuevas = Arrays.copyOf(clavesNuevas, numNuevas * 2);
+            posicionesNuevas = Arrays.copyOf(posicionesNuevas, numNuevas * 2);
+        }
+        int i = buscar(clavesNuevas, posicionesNuevas, numNuevas, clave, posicion);
+        System.arraycopy(clavesNuevas, i, clavesNuevas, i + 1, numNuevas - i);
+        System.arraycopy(posicionesNuevas, i, posicionesNuevas, i + 1, numNuevas - i);
+        clavesNuevas[i] = clave;
+        posicionesNuevas[i] = posicion;
+        numNuevas++;
+        if (numNuevas > Math.max(NUEVAS_MINIMAS, (int) Math.sqrt(tamano))) {
+            consolidar();
+        }
+    }
+
+    /**
+     * Quita una entrada. Si está en el índice principal solo se marca como muerta
+     * @param clave clave con la que se añadió
+     * @param posicion posición de la actividad en el catálogo
+     * @return true si estaba en el índice
+     */
+    boolean quitar(long clave, int posicion) {
+        int i = buscar(clavesNuevas, posicionesNuevas, numNuevas, clave, posicion);
+        if (i < numNuevas && clavesNuevas[i] == clave && posicionesNuevas[i] == posicion) {
+            System.arraycopy(clavesNuevas, i + 1, clavesNuevas, i, numNuevas - i - 1);
+            System.arraycopy(posicionesNuevas, i + 1, posicionesNuevas, i, numNuevas - i - 1);
+            numNuevas--;
+            return true;
+        }
+        i = buscar(claves, posiciones, tamano, clave, posicion);
+        if (i == tamano || claves[i] != clave || posiciones[i] != posicion || muertas.get(i)) {
+            return false;
+        }
+        muertas.set(i);
+        for (int k = i + 1; k <= tamano; k += k & -k) {
+            muertasAcumuladas[k]++;
+        }
+        numMuertas++;
+        if (numMuertas >= NUEVAS_MINIMAS && numMuertas * 2 > tamano) {
+            consolidar();
+        }
+        return true;
+    }
+
+    /**
+     * Cuenta las entradas vivas con la clave entre dos valores, ambos incluidos, en tiempo logarítmico
+     * @param minimo clave mínima
+     * @param maximo clave máxima
+     * @return número de entradas
+     */
+    int contar(long minimo, long maximo) {
+        if (minimo > maximo) return 0;
+        int desde = primera(claves, tamano, minimo, false);
+        int hasta = primera(claves, tamano, maximo, true);
+        return hasta - desde - (muertasAntes(hasta) - muertasAntes(desde))
+                + primera(clavesNuevas, numNuevas, maximo, true) - primera(clavesNuevas, numNuevas, minimo, false);
+    }
+
+    /**
+     * Recorre las entradas vivas con la clave entre dos valores, ambos incluidos, y cuenta
+     * (y guarda, si se indica dónde) las posiciones del catálogo que cumplen una condición
+     * @param minimo clave mínima
+     * @param maximo clave máxima
+     * @param condicion condición sobre la posición del catálogo
+     * @param destino array donde se guardan las posiciones que la cumplen, o null para solo contarlas
+     * @return número de posiciones que cumplen la condición
+     */
+    int recorrer(long minimo, long maximo, IntPredicate condicion, int[] destino) {
+        if (minimo > maximo) return 0;
+        int contador = 0;
+        int hasta = primera(claves, tamano, maximo, true);
+        for (int i = primera(claves, tamano, minimo, false); i < hasta; i++) {
+            if ((numMuertas == 0 || !muertas.get(i)) && condicion.test(posiciones[i])) {
+                if (destino != null) destino[contador] = posiciones[i];
+                contador++;
+            }
+        }
+        hasta = primera(clavesNuevas, numNuevas, maximo, true);
+        for (int i = primera(clavesNuevas, numNuevas, minimo, false); i < hasta; i++) {
+            if (condicion.test(posicionesNuevas[i])) {
+                if (destino != null) destino[contador] = posicionesNuevas[i];
+                contador++;
+            }
+        }
+        return contador;
+    }
+
+    /**
+     * Cambia las posiciones del catálogo tras compactarlo. Antes se quitan las entradas
+     * muertas, que son las únicas que apuntan a huecos eliminados. Como compactar conserva
+     * el orden de las actividades, el orden del índice no cambia
+     * @param nuevas nueva posición de cada posición antigua
+     */
+    void renumerar(int[] nuevas) {
+        consolidar();
+        for (int i = 0; i < tamano; i++) {
+            posiciones[i] = nuevas[posiciones[i]];
+        }
+    }
+
+    /**
+     * Sustituye todo el contenido, ordenándolo una sola vez
+     * @param nuevasClaves clave de cada entrada
+     * @param nuevasPosiciones posición de cada entrada, de menor a mayor
+     * @param n número de entradas
+     */
+    void reconstruir(long[] nuevasClaves, int[] nuevasPosiciones, int n) {
+        claves = Arrays.copyOf(nuevasClaves, Math.max(n, 4));
+        posiciones = Arrays.copyOf(nuevasPosiciones, Math.max(n, 4));
+        tamano = n;
+        numNuevas = 0;
+        vaciarMuertas();
+        long[] clavesAux = new long[n];
+        int[] posicionesAux = new int[n];
+        // Ordenación por mezcla de abajo arriba: es estable, así que las claves iguales
+        // conservan el orden de posición con el que llegan
+        for (int ancho = 1; ancho < n; ancho *= 2) {
+            for (int desde = 0; desde < n - ancho; desde += 2 * ancho) {
+                mezclar(clavesAux, posicionesAux, desde, desde + ancho, Math.min(desde + 2 * ancho, n));
+            }
+        }
+    }
+
+    /**
+     * Mezcla las entradas nuevas con las vivas del índice principal y olvida las muertas
+     */
+    private void consolidar() {
+        if (numNuevas == 0 && numMuertas == 0) return;
+        int total = tamano - numMuertas + numNuevas;
+        long[] clavesMezcla = new long[Math.max(total, 4)];
+        int[] posicionesMezcla = new int[Math.max(total, 4)];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < total; k++) {
+            while (i < tamano && muertas.get(i)) i++;
+            if (j >= numNuevas || (i < tamano && (claves[i] < clavesNuevas[j]
+                    || (claves[i] == clavesNuevas[j] && posiciones[i] < posicionesNuevas[j])))) {
+                clavesMezcla[k] = claves[i];
+                posicionesMezcla[k] = posiciones[i];
+                i++;
+            } else {
+                clavesMezcla[k] = clavesNuevas[j];
+                posicionesMezcla[k] = posicionesNuevas[j];
+                j++;
+            }
+        }
+        claves = clavesMezcla;
+        posiciones = posicionesMezcla;
+        tamano = total;
+        numNuevas = 0;
+        vaciarMuertas();
+    }
+
+    /**
+     * Deja el índice principal sin entradas muertas
+     */
+    private void vaciarMuertas() {
+        muertas.clear();
+        muertasAcumuladas = new int[tamano + 1];
+        numMuertas = 0;
+    }
+
+    /**
+     * Número de entradas muertas antes de una posición del índice principal
+     * @param hasta posición, no incluida
+     * @return entradas muertas en [0, hasta)
+     */
+    private int muertasAntes(int hasta) {
+        int suma = 0;
+        for (int k = hasta; k > 0; k -= k & -k) {
+            suma += muertasAcumuladas[k];
+        }
+        return suma;
+    }
+
+    /**
+     * Mezcla dos tramos consecutivos ya ordenados
+     * @param clavesAux array auxiliar de claves
+     * @param posicionesAux array auxiliar de posiciones
+     * @param desde inicio del primer tramo
+     * @param medio inicio del segundo tramo
+     * @param hasta final del segundo tramo
+     */
+    private void mezclar(long[] clavesAux, int[] posicionesAux, int desde, int medio, int hasta) {
+        if (claves[medio - 1] <= claves[medio]) return;
+        System.arraycopy(claves, desde, clavesAux, desde, hasta - desde);
+        System.arraycopy(posiciones, desde, posicionesAux, desde, hasta - desde);
+        int i = desde;
+        int j = medio;
+        for (int k = desde; k < hasta; k++) {
+            if (j >= hasta || (i < medio && clavesAux[i] <= clavesAux[j])) {
+                claves[k] = clavesAux[i];
+                posiciones[k] = posicionesAux[i];
+                i++;
+            } else {
+                claves[k] = clavesAux[j];
+                posiciones[k] = posicionesAux[j];
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Primera entrada de un array ordenado cuya clave es mayor (o mayor o igual) que la indicada
+     * @param claves claves ordenadas
+     * @param n número de entradas
+     * @param clave clave buscada
+     * @param incluirIguales true para saltar también las claves iguales
+     * @return posición en el array
+     */
+    private static int primera(long[] claves, int n, long clave, boolean incluirIguales) {
+        int bajo = 0;
+        int alto = n;
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (claves[medio] < clave || (incluirIguales && claves[medio] == clave)) bajo = medio + 1;
+            else alto = medio;
+        }
+        return bajo;
+    }
+
+    /**
+     * Sitio que corresponde a una entrada según el orden de clave y posición
+     * @param claves claves ordenadas
+     * @param posiciones posiciones de cada clave
+     * @param n número de entradas
+     * @param clave clave
+     * @param posicion posición en el catálogo
+     * @return primera posición del array que no es menor que la entrada
+     */
+    private static int buscar(long[] claves, int[] posiciones, int n, long clave, int posicion) {
+        int bajo = 0;
+        int alto = n;
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (claves[medio] < clave || (claves[medio] == clave && posiciones[medio] < posicion)) bajo = medio + 1;
+            else alto = medio;
+        }
+        return bajo;
+    }
+}
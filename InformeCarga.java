@@ -0,0 +1,130 @@
+package es.upm;
+
+import java.util.Arrays;
+
+/**
+ * Resultado de cargar un archivo de actividades o un itinerario: cuántas actividades se
+ * leyeron y se añadieron y los avisos de los registros mal formados o descartados, cada uno
+ * con el número de línea (empezando en 1) del archivo donde se encontró. Los avisos no se
+ * imprimen al cargar; es quien llama quien decide si mostrarlos.
+ * @author Sara Paloma Martínez-Tizón García, BW0100
+ */
+public class InformeCarga {
+    private long[] lineas;
+    private String[] mensajes;
+    private int numAvisos;
+    private int actividadesLeidas;
+    private int actividadesAgregadas;
+    private boolean catalogoLleno;
+
+    /**
+     * Crea un informe sin avisos
+     */
+    public InformeCarga() {
+        this.lineas = new long[4];
+        this.mensajes = new String[4];
+        this.numAvisos = 0;
+    }
+
+    /**Devuelve el número de avisos
+     * @return atributo numAvisos
+     */
+    public int getNumAvisos() {
+        return numAvisos; }
+
+    /**Devuelve la línea de un aviso
+     * @param i posición del aviso
+     * @return número de línea del archivo
+     */
+    public long getLinea(int i) {
+        return lineas[i]; }
+
+    /**Devuelve el texto de un aviso
+     * @param i posición del aviso
+     * @return mensaje del aviso
+     */
+    public String getMensaje(int i) {
+        return mensajes[i]; }
+
+    /**Devuelve cuántos registros se leyeron del archivo
+     * @return atributo actividadesLeidas
+     */
+    public int getActividadesLeidas() {
+        return actividadesLeidas; }
+
+    /**Devuelve cuántas actividades se añadieron al catálogo
+     * @return atributo actividadesAgregadas
+     */
+    public int getActividadesAgregadas() {
+        return actividadesAgregadas; }
+
+    /**Devuelve si la carga se detuvo porque el catálogo se llenó
+     * @return atributo catalogoLleno
+     */
+    public boolean isCatalogoLleno() {
+        return catalogoLleno; }
+
+    /**
+     * Añade un aviso
+     * @param linea número de línea del archivo
+     * @param mensaje texto del aviso
+     */
+    void anotar(long linea, String mensaje) {
+        if (numAvisos == lineas.length) {
+            lineas = Arrays.copyOf(lineas, numAvisos * 2);
+            mensajes = Arrays.copyOf(mensajes, numAvisos * 2);
+        }
+        lineas[numAvisos] = linea;
+        mensajes[numAvisos] = mensaje;
+        numAvisos++;
+    }
+
+    /**
+     * Copia los avisos de otro informe hasta una línea, desplazando su numeración
+     * @param otro informe cuyas líneas se cuentan desde el principio de un trozo del archivo
+     * @param desplazamiento número de líneas del archivo anteriores a ese trozo
+     * @param hastaLinea última línea del trozo, sin desplazar, cuyos avisos se copian
+     */
+    void anotarTodos(InformeCarga otro, long desplazamiento, long hastaLinea) {
+        for (int i = 0; i < otro.numAvisos && otro.lineas[i] <= hastaLinea; i++) {
+            anotar(otro.lineas[i] + desplazamiento, otro.mensajes[i]);
+        }
+    }
+
+    /**
+     * Anota el resultado de intentar añadir una actividad leída
+     * @param resultado código devuelto por CatalogoActividades.agregarActividad
+     */
+    void contar(int resultado) {
+        actividadesLeidas++;
+        if (resultado == CatalogoActividades.EXITO) {
+            actividadesAgregadas++;
+        } else if (resultado == CatalogoActividades.ERROR_DEMASIADOS) {
+            catalogoLleno = true;
+        }
+    }
+
+    /**
+     * Anota una entrada leída de un itinerario
+     * @param agregada true si la entrada se añadió al viaje
+     */
+    void contarEntrada(boolean agregada) {
+        actividadesLeidas++;
+        if (agregada) {
+            actividadesAgregadas++;
+        }
+    }
+
+    /**
+     * Devuelve los avisos, uno por línea
+     * @return texto con los avisos
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numAvisos; i++) {
+            sb.append("Línea ").append(lineas[i]).append(": ").append(mensajes[i]).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -9,6 +9,8 @@ import java.util.Scanner;
  * @author Kai wei Jiang Xu, BW0067
  */
 public class InterfazUsuario{
+    private static final int MAX_RESULTADOS_MOSTRADOS = 20;
+    private static final int MAX_ERRORES_BUSQUEDA = 2;
     private CatalogoActividades catalogo;
     private Viaje viaje;
     private int maxRecursosPorActividad;
@@ -138,7 +140,8 @@ public class InterfazUsuario{
 
     /**
      * Busca actividades cuyo nombre contenga un texto introducido por el usuario
-     * Muestra las coincidencias y permite al usuario selecciona una de ellas
+     * Muestra las coincidencias más relevantes y permite al usuario selecciona una de ellas.
+     * Si no hay ninguna, muestra las de nombre parecido admitiendo algunos errores
      * @param scanner lector de entrada por consola
      * @return actividad seleccionada por el usuario
      */
@@ -149,7 +152,11 @@ public class InterfazUsuario{
             String texto = Utilidades.leerCadena(scanner, "Introduce el texto de la actividad a buscar (-FIN- para volver): ");
             if (texto.equals("-FIN-")) {buscando = true;
             } else {
-                Actividad[] actividades = catalogo.buscarActividadPorNombre(texto);
+                Actividad[] actividades = catalogo.buscarMejoresPorNombre(texto, MAX_RESULTADOS_MOSTRADOS);
+                if (actividades.length == 0) {
+                    actividades = catalogo.buscarActividadAproximada(texto, MAX_ERRORES_BUSQUEDA, MAX_RESULTADOS_MOSTRADOS);
+                    if (actividades.length > 0) System.out.println("No hay coincidencias exactas. Quizá buscabas:");
+                }
                 if (actividades != null && actividades.length > 0) {
                     actividadSeleccionada = seleccionarActividad(scanner, actividades);
                     buscando = true;
@@ -175,6 +182,10 @@ public class InterfazUsuario{
             }
         }
 
+        if (actividades.length == MAX_RESULTADOS_MOSTRADOS) {
+            System.out.println("Se muestran las " + MAX_RESULTADOS_MOSTRADOS + " más relevantes; escribe un texto más largo para afinar.");
+        }
+
         int opcion = Utilidades.leerNumero(scanner, "Elige una actividad: ", 1, actividades.length);
         return actividades[opcion - 1];
     }
@@ -0,0 +1,240 @@
+package es.upm;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Lector de registros de actividad del archivo de texto que trabaja sobre los bytes, sin
+ * decodificar cada línea. Las líneas se copian a un buffer que se reutiliza, las marcas
+ * "-----" y "COMENTARIOS" se comparan byte a byte y los números se calculan directamente;
+ * solo se crean cadenas para los textos que acaban en la actividad.
+ * Sirve para UTF-8 y para cualquier juego de caracteres en el que los bytes ASCII no
+ * aparezcan dentro de otros caracteres. Sigue las mismas reglas que Actividad.fromBufferedReader,
+ * pero los formatos incorrectos se anotan en un informe con su número de línea.
+ * @author Sara Paloma Martínez-Tizón García, BW0100
+ */
+class LectorRegistros {
+    private static final byte[] FIN_REGISTRO = {'-', '-', '-', '-', '-'};
+    private static final byte[] MARCA_COMENTARIOS = {'C', 'O', 'M', 'E', 'N', 'T', 'A', 'R', 'I', 'O', 'S'};
+    private static final int MAX_CIFRAS_EXACTAS = 15;
+    private static final int MAX_CIFRAS_ENTERO = 9;
+    private static final double[] POTENCIAS_DIEZ = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    private final ByteBuffer bytes;
+    private final Charset juego;
+    private byte[] linea;
+    private int longitud;
+    private int inicioLimpio;
+    private int finLimpio;
+    private long numLinea;
+    private boolean terminado;
+    private boolean numeroValido;
+
+    /**
+     * Crea un lector sobre los bytes que quedan en el buffer
+     * @param bytes contenido del archivo o de un trozo que empieza al principio de una línea
+     * @param juego juego de caracteres de los textos
+     */
+    LectorRegistros(ByteBuffer bytes, Charset juego) {
+        this.bytes = bytes;
+        this.juego = juego;
+        this.linea = new byte[256];
+        this.numLinea = 0;
+    }
+
+    /**
+     * Devuelve el número de líneas leídas hasta ahora
+     * @return número de la última línea leída
+     */
+    long getNumLinea() {
+        return numLinea; }
+
+    /**
+     * Devuelve si el último registro leído acabó en "-----"
+     * @return atributo terminado
+     */
+    boolean isTerminado() {
+        return terminado; }
+
+    /**
+     * Lee el siguiente registro
+     * @param maxRecursos numero maximo de recursos que se cargarán
+     * @param maxComentarios numero maximo de comentarios que se cargaran
+     * @param informe informe en el que se anotan los formatos incorrectos
+     * @return actividad leída o null si no quedan actividades
+     */
+    Actividad siguiente(int maxRecursos, int maxComentarios, InformeCarga informe) {
+        terminado = false;
+        do {
+            if (!leerLinea()) return null;
+        } while (inicioLimpio == finLimpio);
+        String nombre = new String(linea, 0, longitud, juego);
+        String descripcion = leerLinea() ? new String(linea, 0, longitud, juego) : null;
+        double precio = 0.0;
+        int duracion = 0;
+        if (!leerLinea()) {
+            informe.anotar(numLinea, "Registro incompleto: falta el precio de \"" + nombre + "\"");
+        } else {
+            double valor = leerDecimal();
+            if (!numeroValido) {
+                informe.anotar(numLinea, "Formato del precio incorrecto: \"" + textoLimpio() + "\"");
+            } else {
+                precio = valor;
+                if (!leerLinea()) {
+                    informe.anotar(numLinea, "Registro incompleto: falta la duración de \"" + nombre + "\"");
+                } else {
+                    int minutos = leerEntero();
+                    if (numeroValido) {
+                        duracion = minutos;
+                    } else {
+                        informe.anotar(numLinea, "Formato de la duración incorrecto: \"" + textoLimpio() + "\"");
+                    }
+                }
+            }
+        }
+        Actividad actividad = new Actividad(nombre, maxRecursos, maxComentarios);
+        actividad.setDescripcion(descripcion);
+        actividad.setPrecio(precio);
+        actividad.setDuracionMinutos(duracion);
+        boolean leyendoComentarios = false;
+        while (!terminado && leerLinea()) {
+            if (esMarca(FIN_REGISTRO)) {
+                terminado = true;
+            } else if (esMarca(MARCA_COMENTARIOS)) {
+                leyendoComentarios = true;
+            } else if (inicioLimpio < finLimpio) {
+                if (leyendoComentarios) {
+                    if (!actividad.comentariosCompletos()) {
+                        actividad.agregarComentario(new String(linea, 0, longitud, juego));
+                    }
+                } else if (!actividad.recursosCompletos()) {
+                    actividad.agregarRecurso(new String(linea, 0, longitud, juego));
+                }
+            }
+        }
+        return actividad;
+    }
+
+    /**
+     * Copia la siguiente línea al buffer, sin el salto de línea (\n, \r o \r\n), y calcula
+     * dónde empieza y acaba sin los espacios de los extremos
+     * @return false si no quedan líneas
+     */
+    private boolean leerLinea() {
+        if (!bytes.hasRemaining()) return false;
+        longitud = 0;
+        while (bytes.hasRemaining()) {
+            byte b = bytes.get();
+            if (b == '\n') break;
+            if (b == '\r') {
+                if (bytes.hasRemaining() && bytes.get(bytes.position()) == '\n') bytes.get();
+                break;
+            }
+            if (longitud == linea.length) {
+                linea = Arrays.copyOf(linea, longitud * 2);
+            }
+            linea[longitud++] = b;
+        }
+        numLinea++;
+        inicioLimpio = 0;
+        while (inicioLimpio < longitud && (linea[inicioLimpio] & 0xff) <= ' ') inicioLimpio++;
+        finLimpio = longitud;
+        while (finLimpio > inicioLimpio && (linea[finLimpio - 1] & 0xff) <= ' ') finLimpio--;
+        return true;
+    }
+
+    /**
+     * Comprueba si la línea actual, sin los espacios de los extremos, es una marca
+     * @param marca bytes de la marca
+     * @return true si coinciden
+     */
+    private boolean esMarca(byte[] marca) {
+        return Arrays.equals(linea, inicioLimpio, finLimpio, marca, 0, marca.length);
+    }
+
+    /**
+     * Devuelve la línea actual sin los espacios de los extremos
+     * @return texto de la línea
+     */
+    private String textoLimpio() {
+        return new String(linea, inicioLimpio, finLimpio - inicioLimpio, juego);
+    }
+
+    /**
+     * Lee la línea actual como un número decimal. Los números con signo, cifras y un punto que
+     * tienen como mucho 15 cifras se calculan sin crear cadenas, con el mismo resultado que
+     * Double.parseDouble; el resto de formatos (exponentes, más cifras...) pasan por él
+     * @return valor leído; numeroValido indica si el formato era correcto
+     */
+    private double leerDecimal() {
+        int i = inicioLimpio;
+        boolean negativo = false;
+        if (i < finLimpio && (linea[i] == '-' || linea[i] == '+')) {
+            negativo = linea[i] == '-';
+            i++;
+        }
+        long mantisa = 0;
+        int cifras = 0;
+        int decimales = 0;
+        boolean punto = false;
+        for (; i < finLimpio && cifras <= MAX_CIFRAS_EXACTAS; i++) {
+            byte b = linea[i];
+            if (b >= '0' && b <= '9') {
+                mantisa = mantisa * 10 + (b - '0');
+                cifras++;
+                if (punto) decimales++;
+            } else if (b == '.' && !punto) {
+                punto = true;
+            } else {
+                break;
+            }
+        }
+        if (i == finLimpio && cifras > 0 && cifras <= MAX_CIFRAS_EXACTAS) {
+            numeroValido = true;
+            double valor = (double) mantisa / POTENCIAS_DIEZ[decimales];
+            return negativo ? -valor : valor;
+        }
+        try {
+            double valor = Double.parseDouble(textoLimpio());
+            numeroValido = true;
+            return valor;
+        } catch (NumberFormatException e) {
+            numeroValido = false;
+            return 0.0;
+        }
+    }
+
+    /**
+     * Lee la línea actual como un entero. Los de hasta 9 cifras ASCII se calculan sin crear
+     * cadenas; el resto pasan por Integer.parseInt
+     * @return valor leído; numeroValido indica si el formato era correcto
+     */
+    private int leerEntero() {
+        int i = inicioLimpio;
+        boolean negativo = false;
+        if (i < finLimpio && (linea[i] == '-' || linea[i] == '+')) {
+            negativo = linea[i] == '-';
+            i++;
+        }
+        int valor = 0;
+        int cifras = 0;
+        for (; i < finLimpio && cifras < MAX_CIFRAS_ENTERO && linea[i] >= '0' && linea[i] <= '9'; i++) {
+            valor = valor * 10 + (linea[i] - '0');
+            cifras++;
+        }
+        if (i == finLimpio && cifras > 0) {
+            numeroValido = true;
+            return negativo ? -valor : valor;
+        }
+        try {
+            valor = Integer.parseInt(textoLimpio());
+            numeroValido = true;
+            return valor;
+        } catch (NumberFormatException e) {
+            numeroValido = false;
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package es.upm;
+
+import java.util.Arrays;
+
+/**
+ * Lista creciente de números de secuencia ordenados de menor a mayor.
+ * Se usa en los índices del catálogo: como las secuencias se asignan en orden,
+ * añadir al final mantiene la lista ordenada y las búsquedas son binarias.
+ * @author Sara Paloma Martínez-Tizón García, BW0100
+ */
+class ListaSecuencias {
+    private long[] valores;
+    private int tamano;
+
+    /**
+     * Crea una lista vacía
+     */
+    ListaSecuencias() {
+        this.valores = new long[4];
+        this.tamano = 0;
+    }
+
+    /**
+     * Devuelve el número de secuencias de la lista
+     * @return tamaño de la lista
+     */
+    int getTamano() {
+        return tamano; }
+
+    /**
+     * Devuelve la secuencia de una posición
+     * @param i posición
+     * @return secuencia guardada en esa posición
+     */
+    long obtener(int i) {
+        return valores[i]; }
+
+    /**
+     * Devuelve la última secuencia añadida
+     * @return última secuencia o -1 si la lista está vacía
+     */
+    long ultima() {
+        return tamano == 0 ? -1 : valores[tamano - 1]; }
+
+    /**
+     * Añade una secuencia mayor que todas las de la lista
+     * @param secuencia secuencia nueva
+     */
+    void agregar(long secuencia) {
+        if (tamano == valores.length) {
+            valores = Arrays.copyOf(valores, tamano * 2);
+        }
+        valores[tamano] = secuencia;
+        tamano++;
+    }
+
+    /**
+     * Comprueba por búsqueda binaria si la secuencia está en la lista
+     * @param secuencia secuencia buscada
+     * @return true si está
+     */
+    boolean contiene(long secuencia) {
+        return Arrays.binarySearch(valores, 0, tamano, secuencia) >= 0;
+    }
+
+    /**
+     * Quita una secuencia de la lista
+     * @param secuencia secuencia que se quita
+     * @return true si estaba en la lista
+     */
+    boolean eliminar(long secuencia) {
+        int i = Arrays.binarySearch(valores, 0, tamano, secuencia);
+        if (i < 0) {
+            return false;
+        }
+        System.arraycopy(valores, i + 1, valores, i, tamano - i - 1);
+        tamano--;
+        return true;
+    }
+}
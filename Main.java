@@ -10,6 +10,7 @@ import java.util.Scanner;
  */
 public class Main {
 
+    private static final int TAMANO_CACHE_BUSQUEDAS = 64;
 
     /**
      * Método principal de la aplicacion
@@ -22,7 +23,7 @@ public class Main {
      *   - args[2]: número máximo de actividades en el catálogo
      *   - args[3]: número de días del viaje
      *   - args[4]: número máximo de actividades por día
-     *   - args[5]: (opcional) nombre del archivo con actividades iniciales
+     *   - args[5]: (opcional) nombre del archivo con actividades iniciales (binario si acaba en .bin)
      */
 
     public static void main(String[] args) {
@@ -42,13 +43,19 @@ public class Main {
                 nombreArchivoActividades = args[5];
             }
             CatalogoActividades catalogo = new CatalogoActividades(maxActividadesEnCatalogo);
+            catalogo.setTamanoCache(TAMANO_CACHE_BUSQUEDAS);
             Viaje viaje = new Viaje(numDiasViaje, maxActividadesPorDia);
             InterfazUsuario interfaz = new InterfazUsuario(catalogo, viaje, maxRecursosPorActividad, maxComentariosPorActividad);
             Scanner scanner = new Scanner(System.in);
             if (nombreArchivoActividades != null) {
                 System.out.println("Intentando cargar actividades desde " + nombreArchivoActividades + "...");
                 try {
-                    catalogo.cargarActividades(nombreArchivoActividades, maxRecursosPorActividad, maxComentariosPorActividad);
+                    if (nombreArchivoActividades.endsWith(CatalogoActividades.EXTENSION_BINARIA)) {
+                        catalogo.cargarActividadesBinario(nombreArchivoActividades, maxRecursosPorActividad, maxComentariosPorActividad);
+                    } else {
+                        InformeCarga informe = catalogo.cargarActividadesParalelo(nombreArchivoActividades, maxRecursosPorActividad, maxComentariosPorActividad);
+                        System.out.print(informe);
+                    }
                     System.out.println("Actividades cargadas exitosamente al inicio.");
                 } catch (Exception e) {
                     System.out.println("Error al cargar el archivo de actividades inicial: " + e.getMessage());
@@ -0,0 +1,116 @@
+package es.upm;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Reglas con las que se pliegan los nombres y los textos de búsqueda del catálogo.
+ * Por defecto se ignoran mayúsculas y acentos y se colapsan los espacios, de modo que
+ * "excursion" encuentra "Excursión". Las reglas no cambian una vez creado el objeto;
+ * para usar otras se crea un normalizador nuevo y se asigna al catálogo.
+ * @author Sara Paloma Martínez-Tizón García, BW0100
+ */
+public class NormalizadorBusqueda {
+    private static final Pattern MARCAS = Pattern.compile("\\p{M}+");
+
+    private final boolean ignorarMayusculas;
+    private final boolean ignorarAcentos;
+    private final boolean colapsarEspacios;
+
+    /**
+     * Crea un normalizador con todas las reglas activadas
+     */
+    public NormalizadorBusqueda() {
+        this(true, true, true);
+    }
+
+    /**
+     * Crea un normalizador con las reglas indicadas
+     * @param ignorarMayusculas si se pasa todo a minúsculas
+     * @param ignorarAcentos si se quitan acentos y diacríticos (á, ü, ñ pasan a a, u, n)
+     * @param colapsarEspacios si los espacios seguidos se dejan en uno y se quitan los de los extremos
+     */
+    public NormalizadorBusqueda(boolean ignorarMayusculas, boolean ignorarAcentos, boolean colapsarEspacios) {
+        this.ignorarMayusculas = ignorarMayusculas;
+        this.ignorarAcentos = ignorarAcentos;
+        this.colapsarEspacios = colapsarEspacios;
+    }
+
+    /**Devuelve si se ignoran las mayúsculas
+     * @return atributo ignorarMayusculas
+     */
+    public boolean isIgnorarMayusculas() {
+        return ignorarMayusculas; }
+
+    /**Devuelve si se ignoran los acentos
+     * @return atributo ignorarAcentos
+     */
+    public boolean isIgnorarAcentos() {
+        return ignorarAcentos; }
+
+    /**Devuelve si se colapsan los espacios
+     * @return atributo colapsarEspacios
+     */
+    public boolean isColapsarEspacios() {
+        return colapsarEspacios; }
+
+    /**
+     * Aplica las reglas a un texto
+     * @param texto texto original
+     * @return clave de búsqueda
+     */
+    public String normalizar(String texto) {
+        String resultado = texto;
+        if (ignorarMayusculas) {
+            resultado = resultado.toLowerCase(Locale.ROOT);
+        }
+        if (ignorarAcentos && !esAscii(resultado)) {
+            resultado = MARCAS.matcher(Normalizer.normalize(resultado, Normalizer.Form.NFD)).replaceAll("");
+        }
+        if (colapsarEspacios) {
+            resultado = colapsar(resultado);
+        }
+        return resultado;
+    }
+
+    /**
+     * Comprueba si un texto solo tiene caracteres ASCII, que no llevan acentos
+     * @param texto texto
+     * @return true si todos los caracteres son ASCII
+     */
+    private static boolean esAscii(String texto) {
+        for (int i = 0; i < texto.length(); i++) {
+            if (texto.charAt(i) > 127) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deja un solo espacio entre palabras y quita los de los extremos
+     * @param texto texto
+     * @return texto con los espacios colapsados
+     */
+    private static String colapsar(String texto) {
+        StringBuilder sb = new StringBuilder(texto.length());
+        boolean espacioPendiente = false;
+        boolean cambiado = false;
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (Character.isWhitespace(c)) {
+                // Solo queda igual un espacio normal, único y entre dos palabras
+                cambiado |= c != ' ' || espacioPendiente || sb.length() == 0 || i == texto.length() - 1;
+                espacioPendiente = sb.length() > 0;
+            } else {
+                if (espacioPendiente) {
+                    sb.append(' ');
+                    espacioPendiente = false;
+                }
+                sb.append(c);
+            }
+        }
+        return cambiado ? sb.toString() : texto;
+    }
+}
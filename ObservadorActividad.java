@@ -0,0 +1,15 @@
+package es.upm;
+
+/**
+ * Recibe aviso cuando cambia el precio o la duración de una actividad,
+ * para que quien la indexa por esos campos pueda actualizarse.
+ * @author Sara Paloma Martínez-Tizón García, BW0100
+ */
+interface ObservadorActividad {
+
+    /**
+     * Se llama después de que cambie el precio o la duración de la actividad
+     * @param actividad actividad modificada
+     */
+    void actividadModificada(Actividad actividad);
+}
@@ -0,0 +1,334 @@
+package es.upm;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Rellena automáticamente un viaje con actividades del catálogo sin solapamientos.
+ * Respeta un presupuesto total, una franja horaria diaria, un máximo de actividades
+ * por día y una lista opcional de actividades obligatorias.
+ * Cada rama de la búsqueda construye un plan voraz con un criterio de orden distinto;
+ * las ramas se reparten entre todos los núcleos con fork-join y se queda el plan con
+ * más actividades (y, a igualdad, el más barato).
+ * @author Kai Wei Jiang Xu, BW0067
+ */
+public class PlanificadorViaje {
+
+    /**
+     * Valor de exito del proceso (0)
+     */
+    public static final int EXITO = 0;
+    /**
+     * Valor de error si alguna actividad obligatoria no cabe en el viaje (1)
+     */
+    public static final int ERROR_OBLIGATORIA_NO_CABE = 1;
+    /**
+     * Valor de error si el plan ya no encaja al añadirlo al viaje, porque el viaje o las
+     * actividades cambiaron durante la planificación (2). En ese caso no se añade nada
+     */
+    public static final int ERROR_PLAN_RECHAZADO = 2;
+
+    private static final int RAMAS_DETERMINISTAS = 4;
+    private static final int RAMAS_POR_NUCLEO = 2;
+
+    private CatalogoActividades catalogo;
+    private double presupuesto;
+    private String horaDesde;
+    private String horaHasta;
+    private int maxActividadesPorDia;
+    private Actividad[] obligatorias;
+    private int numObligatorias;
+    private int numPlanificadas;
+
+    /**
+     * Crea un planificador sin límite de presupuesto, con el día completo como franja
+     * y sin actividades obligatorias
+     * @param catalogo catálogo del que se toman las actividades
+     */
+    public PlanificadorViaje(CatalogoActividades catalogo) {
+        this.catalogo = catalogo;
+        this.presupuesto = Double.MAX_VALUE;
+        this.horaDesde = "00:00";
+        this.horaHasta = null;
+        this.maxActividadesPorDia = Integer.MAX_VALUE;
+        this.obligatorias = new Actividad[4];
+        this.numObligatorias = 0;
+    }
+
+    /**
+     * define el presupuesto total del viaje, incluidas las actividades ya planificadas
+     * @param presupuesto precio máximo total
+     */
+    public void setPresupuesto(double presupuesto) {
+        this.presupuesto = presupuesto; }
+
+    /**
+     * define la franja horaria en la que pueden realizarse las actividades cada día
+     * @param desde hora mínima de inicio en formato HH:MM
+     * @param hasta hora máxima de fin en formato HH:MM (null para el final del día)
+     */
+    public void setFranjaDiaria(String desde, String hasta) {
+        this.horaDesde = desde;
+        this.horaHasta = hasta;
+    }
+
+    /**
+     * define el máximo de actividades por día; nunca supera el límite del propio viaje
+     * @param maxActividadesPorDia máximo de actividades por día
+     */
+    public void setMaxActividadesPorDia(int maxActividadesPorDia) {
+        this.maxActividadesPorDia = maxActividadesPorDia; }
+
+    /**
+     * Añade una actividad que debe aparecer en el itinerario generado
+     * @param actividad actividad obligatoria
+     */
+    public void agregarObligatoria(Actividad actividad) {
+        if (numObligatorias == obligatorias.length) {
+            obligatorias = Arrays.copyOf(obligatorias, numObligatorias * 2);
+        }
+        obligatorias[numObligatorias] = actividad;
+        numObligatorias++;
+    }
+
+    /**
+     * Devuelve cuántas actividades añadió la última planificación
+     * @return número de actividades añadidas al viaje
+     */
+    public int getNumPlanificadas() {
+        return numPlanificadas; }
+
+    /**
+     * Completa el viaje con actividades del catálogo que aún no estén en él.
+     * Las actividades ya planificadas se conservan y cuentan para el presupuesto
+     * @param viaje viaje que se va a completar
+     * @return código de resultado (éxito, obligatoria que no cabe o plan rechazado)
+     */
+    public int planificar(Viaje viaje) {
+        numPlanificadas = 0;
+        IdentityHashMap<Actividad, Boolean> usadas = new IdentityHashMap<>();
+        for (int d = 0; d < viaje.getNumDias(); d++) {
+            for (Actividad act : viaje.obtenerActividadesDia(d)) {
+                usadas.put(act, Boolean.TRUE);
+            }
+        }
+        Actividad[] obligatoriasPendientes = new Actividad[numObligatorias];
+        int numPendientes = 0;
+        for (int i = 0; i < numObligatorias; i++) {
+            if (usadas.put(obligatorias[i], Boolean.TRUE) == null) {
+                obligatoriasPendientes[numPendientes] = obligatorias[i];
+                numPendientes++;
+            }
+        }
+        obligatoriasPendientes = Arrays.copyOf(obligatoriasPendientes, numPendientes);
+
+        int duracionFranja = (horaHasta == null ? Viaje.MINUTOS_DIA : Utilidades.horaAMinutos(horaHasta))
+                - Utilidades.horaAMinutos(horaDesde);
+        Actividad[] todas = catalogo.obtenerActividades();
+        Actividad[] candidatas = new Actividad[todas.length];
+        int numCandidatas = 0;
+        for (Actividad act : todas) {
+            if (!usadas.containsKey(act) && act.getDuracionMinutos() > 0
+                    && act.getDuracionMinutos() <= duracionFranja) {
+                usadas.put(act, Boolean.TRUE);
+                candidatas[numCandidatas] = act;
+                numCandidatas++;
+            }
+        }
+        candidatas = Arrays.copyOf(candidatas, numCandidatas);
+
+        int ramas = Math.max(RAMAS_DETERMINISTAS,
+                Runtime.getRuntime().availableProcessors() * RAMAS_POR_NUCLEO);
+        Plan mejor = ForkJoinPool.commonPool().invoke(new Busqueda(viaje, obligatoriasPendientes,
+                candidatas, presupuesto - viaje.getPrecioTotal(), 0, ramas));
+        if (mejor == null) {
+            return ERROR_OBLIGATORIA_NO_CABE;
+        }
+        // Los precios pueden haber cambiado desde que se construyó el plan
+        double coste = 0.0;
+        for (int i = 0; i < mejor.numActividades; i++) {
+            coste += mejor.actividades[i].getPrecio();
+        }
+        if (coste > mejor.coste && coste > presupuesto - viaje.getPrecioTotal()) {
+            return ERROR_PLAN_RECHAZADO;
+        }
+        int[] codigos = viaje.agregarActividades(Arrays.copyOf(mejor.dias, mejor.numActividades),
+                Arrays.copyOf(mejor.actividades, mejor.numActividades),
+                Arrays.copyOf(mejor.horas, mejor.numActividades), true);
+        for (int codigo : codigos) {
+            if (codigo != Viaje.EXITO) {
+                return ERROR_PLAN_RECHAZADO;
+            }
+        }
+        numPlanificadas = mejor.numActividades;
+        return EXITO;
+    }
+
+    /**
+     * Devuelve el criterio de orden de una rama. Las primeras son deterministas; el
+     * resto ordenan por precio con una perturbación aleatoria reproducible
+     * @param rama número de rama
+     * @return comparador de actividades
+     */
+    private static Comparator<Actividad> criterio(int rama) {
+        switch (rama) {
+            case 0:
+                return Comparator.comparingDouble(Actividad::getPrecio)
+                        .thenComparingInt(Actividad::getDuracionMinutos);
+            case 1:
+                return Comparator.comparingInt(Actividad::getDuracionMinutos)
+                        .thenComparingDouble(Actividad::getPrecio);
+            case 2:
+                return Comparator.comparingDouble(
+                        (Actividad a) -> a.getPrecio() * a.getDuracionMinutos());
+            case 3:
+                return (a, b) -> 0;
+            default:
+                Random aleatorio = new Random(rama);
+                IdentityHashMap<Actividad, Double> pesos = new IdentityHashMap<>();
+                return Comparator.comparingDouble((Actividad a) -> pesos.computeIfAbsent(a,
+                        k -> (k.getPrecio() + 1.0) * (1.0 + aleatorio.nextDouble() / 4)));
+        }
+    }
+
+    /**
+     * Plan generado por una rama: entradas listas para Viaje.agregarActividades
+     */
+    private static class Plan {
+        private int[] dias;
+        private Actividad[] actividades;
+        private String[] horas;
+        private int numActividades;
+        private double coste;
+
+        Plan(int capacidad) {
+            dias = new int[capacidad];
+            actividades = new Actividad[capacidad];
+            horas = new String[capacidad];
+        }
+
+        void agregar(int dia, Actividad actividad, String hora) {
+            dias[numActividades] = dia;
+            actividades[numActividades] = actividad;
+            horas[numActividades] = hora;
+            numActividades++;
+            coste += actividad.getPrecio();
+        }
+
+        boolean mejorQue(Plan otro) {
+            return otro == null || numActividades > otro.numActividades
+                    || (numActividades == otro.numActividades && coste < otro.coste);
+        }
+    }
+
+    /**
+     * Tarea fork-join que reparte un rango de ramas y devuelve el mejor plan del rango
+     */
+    private class Busqueda extends RecursiveTask<Plan> {
+        private static final long serialVersionUID = 1L;
+        private Viaje viaje;
+        private Actividad[] obligatoriasPendientes;
+        private Actividad[] candidatas;
+        private double disponible;
+        private int primeraRama;
+        private int finRamas;
+
+        Busqueda(Viaje viaje, Actividad[] obligatoriasPendientes, Actividad[] candidatas,
+                 double disponible, int primeraRama, int finRamas) {
+            this.viaje = viaje;
+            this.obligatoriasPendientes = obligatoriasPendientes;
+            this.candidatas = candidatas;
+            this.disponible = disponible;
+            this.primeraRama = primeraRama;
+            this.finRamas = finRamas;
+        }
+
+        @Override
+        protected Plan compute() {
+            if (finRamas - primeraRama == 1) {
+                return construirPlan(primeraRama);
+            }
+            int medio = (primeraRama + finRamas) >>> 1;
+            Busqueda izquierda = new Busqueda(viaje, obligatoriasPendientes, candidatas,
+                    disponible, primeraRama, medio);
+            Busqueda derecha = new Busqueda(viaje, obligatoriasPendientes, candidatas,
+                    disponible, medio, finRamas);
+            izquierda.fork();
+            Plan planDerecha = derecha.compute();
+            Plan planIzquierda = izquierda.join();
+            return planDerecha != null && planDerecha.mejorQue(planIzquierda) ? planDerecha : planIzquierda;
+        }
+
+        /**
+         * Construye un plan voraz sobre una copia del viaje: primero las obligatorias y
+         * después las candidatas en el orden de la rama, cada una en el día con menos
+         * actividades que tenga hueco
+         * @param rama número de rama
+         * @return plan construido o null si alguna obligatoria no cabe
+         */
+        private Plan construirPlan(int rama) {
+            Viaje copia = new Viaje(viaje);
+            Actividad[] orden = candidatas.clone();
+            Arrays.sort(orden, criterio(rama));
+            Plan plan = new Plan(obligatoriasPendientes.length + orden.length);
+            double restante = disponible;
+            for (Actividad act : obligatoriasPendientes) {
+                if (act.getPrecio() > restante || !colocar(copia, act, plan)) {
+                    return null;
+                }
+                restante -= act.getPrecio();
+            }
+            int limite = Math.min(maxActividadesPorDia, copia.getMaxActividadesPorDia());
+            int diasLlenos = 0;
+            for (int d = 0; d < copia.getNumDias(); d++) {
+                if (copia.getNumActividadesDia(d) >= limite) {
+                    diasLlenos++;
+                }
+            }
+            for (int i = 0; i < orden.length && diasLlenos < copia.getNumDias(); i++) {
+                Actividad act = orden[i];
+                if (act.getPrecio() <= restante && colocar(copia, act, plan)) {
+                    restante -= act.getPrecio();
+                    if (copia.getNumActividadesDia(plan.dias[plan.numActividades - 1]) >= limite) {
+                        diasLlenos++;
+                    }
+                }
+            }
+            return plan;
+        }
+
+        /**
+         * Coloca una actividad en el día con menos actividades que tenga hueco en la franja.
+         * Una actividad sin duración no ocupa tiempo, pero tampoco puede caer dentro de otra,
+         * así que se coloca en el primer minuto libre de la franja
+         * @param copia copia del viaje sobre la que se construye el plan
+         * @param act actividad a colocar
+         * @param plan plan al que se añade la entrada
+         * @return true si se ha colocado
+         */
+        private boolean colocar(Viaje copia, Actividad act, Plan plan) {
+            int limite = Math.min(maxActividadesPorDia, copia.getMaxActividadesPorDia());
+            int mejorDia = -1;
+            String mejorHora = null;
+            for (int d = 0; d < copia.getNumDias(); d++) {
+                int n = copia.getNumActividadesDia(d);
+                if (n < limite && (mejorDia == -1 || n < copia.getNumActividadesDia(mejorDia))) {
+                    String hora = copia.buscarHuecoLibre(d, Math.max(act.getDuracionMinutos(), 1), horaDesde, horaHasta);
+                    if (hora != null) {
+                        mejorDia = d;
+                        mejorHora = hora;
+                    }
+                }
+            }
+            if (mejorDia == -1 || copia.agregarActividad(mejorDia, act, mejorHora) != Viaje.EXITO) {
+                return false;
+            }
+            plan.agregar(mejorDia, act, mejorHora);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package es.upm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prueba de estrés de ViajeConcurrente que se ejecuta desde la línea de comandos.
+ * Varios hilos escritores añaden y eliminan actividades en días y horas aleatorios
+ * mientras un lector toma instantáneas sin parar. Comprueba que ninguna instantánea
+ * tiene actividades solapadas y que al final el viaje contiene exactamente las
+ * actividades que los escritores creen haber dejado (no se pierde ninguna escritura).
+ * Si encuentra algún fallo termina con un AssertionError.
+ * Es solo una herramienta de desarrollo: no forma parte de la aplicación, nada la usa
+ * fuera de este fichero y por eso no es pública. Se lanza con
+ * {@code java -cp <clases> es.upm.PruebaEstresViajeConcurrente [escritores] [operaciones]}.
+ * @author Kai Wei Jiang Xu, BW0067
+ */
+class PruebaEstresViajeConcurrente {
+
+    private static final int ESCRITORES_DEFECTO = 8;
+    private static final int OPERACIONES_DEFECTO = 2000;
+    private static final int NUM_DIAS = 7;
+    private static final int MAX_ACTIVIDADES_DIA = 40;
+    private static final int PASO_MINUTOS = 5;
+
+    /**
+     * Lanza la prueba
+     * @param args argumentos opcionales:
+     *   - args[0]: número de hilos escritores
+     *   - args[1]: número de operaciones de cada escritor
+     * @throws InterruptedException si se interrumpe la espera a los hilos
+     * @throws AssertionError si la prueba falla
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int numEscritores = args.length > 0 ? Integer.parseInt(args[0]) : ESCRITORES_DEFECTO;
+        int operaciones = args.length > 1 ? Integer.parseInt(args[1]) : OPERACIONES_DEFECTO;
+
+        ViajeConcurrente viaje = new ViajeConcurrente(NUM_DIAS, MAX_ACTIVIDADES_DIA);
+        Map<Actividad, Integer> inicios = Collections.synchronizedMap(new IdentityHashMap<>());
+        AtomicLong insercionesAceptadas = new AtomicLong();
+        AtomicLong bajasPerdidas = new AtomicLong();
+        AtomicLong instantaneas = new AtomicLong();
+        AtomicLong solapamientos = new AtomicLong();
+        AtomicBoolean terminado = new AtomicBoolean(false);
+
+        ArrayList<ArrayList<Actividad>> propias = new ArrayList<>();
+        ArrayList<ArrayList<Integer>> diasPropios = new ArrayList<>();
+        Thread[] escritores = new Thread[numEscritores];
+        for (int w = 0; w < numEscritores; w++) {
+            ArrayList<Actividad> mias = new ArrayList<>();
+            ArrayList<Integer> misDias = new ArrayList<>();
+            propias.add(mias);
+            diasPropios.add(misDias);
+            long semilla = w;
+            escritores[w] = new Thread(() -> {
+                Random aleatorio = new Random(semilla);
+                for (int op = 0; op < operaciones; op++) {
+                    if (!mias.isEmpty() && aleatorio.nextInt(10) < 3) {
+                        int k = aleatorio.nextInt(mias.size());
+                        Actividad actividad = mias.get(k);
+                        String hora = Utilidades.minutosAHora(inicios.get(actividad));
+                        if (viaje.eliminarActividad(misDias.get(k), hora)) {
+                            mias.remove(k);
+                            misDias.remove(k);
+                        } else {
+                            bajasPerdidas.incrementAndGet();
+                        }
+                    } else {
+                        int duracion = 15 + PASO_MINUTOS * aleatorio.nextInt(24);
+                        int inicio = PASO_MINUTOS * aleatorio.nextInt((Viaje.MINUTOS_DIA - duracion) / PASO_MINUTOS);
+                        int dia = aleatorio.nextInt(NUM_DIAS);
+                        Actividad actividad = new Actividad("Actividad " + semilla + "-" + op, 1, 1);
+                        actividad.setDuracionMinutos(duracion);
+                        inicios.put(actividad, inicio);
+                        if (viaje.agregarActividad(dia, actividad, Utilidades.minutosAHora(inicio)) == Viaje.EXITO) {
+                            mias.add(actividad);
+                            misDias.add(dia);
+                            insercionesAceptadas.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+
+        Thread lector = new Thread(() -> {
+            while (!terminado.get()) {
+                solapamientos.addAndGet(contarSolapamientos(viaje.obtenerInstantanea(), inicios));
+                instantaneas.incrementAndGet();
+            }
+        });
+
+        lector.start();
+        for (Thread escritor : escritores) {
+            escritor.start();
+        }
+        for (Thread escritor : escritores) {
+            escritor.join();
+        }
+        terminado.set(true);
+        lector.join();
+
+        Viaje finalViaje = viaje.obtenerInstantanea();
+        solapamientos.addAndGet(contarSolapamientos(finalViaje, inicios));
+        int esperadas = 0;
+        int perdidas = 0;
+        for (int w = 0; w < numEscritores; w++) {
+            esperadas += propias.get(w).size();
+            for (int k = 0; k < propias.get(w).size(); k++) {
+                Actividad actividad = propias.get(w).get(k);
+                String hora = Utilidades.minutosAHora(inicios.get(actividad));
+                if (finalViaje.obtenerActividad(diasPropios.get(w).get(k), hora) != actividad) {
+                    perdidas++;
+                }
+            }
+        }
+        boolean correcto = perdidas == 0 && bajasPerdidas.get() == 0 && solapamientos.get() == 0
+                && finalViaje.getNumActividades() == esperadas;
+
+        System.out.println("Inserciones aceptadas: " + insercionesAceptadas.get());
+        System.out.println("Actividades esperadas: " + esperadas + ", en el viaje: " + finalViaje.getNumActividades());
+        System.out.println("Escrituras perdidas: " + (perdidas + bajasPerdidas.get()));
+        System.out.println("Instantáneas revisadas: " + instantaneas.get() + ", solapamientos: " + solapamientos.get());
+        System.out.println(correcto ? "Prueba superada" : "Prueba fallida");
+        if (!correcto) {
+            throw new AssertionError("Prueba fallida");
+        }
+    }
+
+    /**
+     * Cuenta los pares de actividades consecutivas que se solapan en cada día de una instantánea
+     * @param viaje instantánea del viaje
+     * @param inicios minuto de inicio de cada actividad
+     * @return número de solapamientos encontrados
+     */
+    private static int contarSolapamientos(Viaje viaje, Map<Actividad, Integer> inicios) {
+        int solapamientos = 0;
+        for (int d = 0; d < viaje.getNumDias(); d++) {
+            Actividad[] actividades = viaje.obtenerActividadesDia(d);
+            int[][] tramos = new int[actividades.length][];
+            for (int i = 0; i < actividades.length; i++) {
+                int inicio = inicios.get(actividades[i]);
+                tramos[i] = new int[] {inicio, inicio + actividades[i].getDuracionMinutos()};
+            }
+            Arrays.sort(tramos, (a, b) -> Integer.compare(a[0], b[0]));
+            for (int i = 1; i < tramos.length; i++) {
+                if (tramos[i][0] < tramos[i - 1][1]) {
+                    solapamientos++;
+                }
+            }
+        }
+        return solapamientos;
+    }
+}
@@ -0,0 +1,179 @@
+package es.upm;
+
+import java.util.Arrays;
+
+/**
+ * Almacén por posiciones de las actividades del catálogo, con su secuencia, su clave y
+ * el precio y la duración con los que están en los índices de rango.
+ * Los datos se guardan en segmentos de tamaño fijo que se reservan al llegar a ellos,
+ * así que crecer nunca copia las actividades ya guardadas (solo la lista de segmentos)
+ * y una posición no cambia de sitio mientras no se compacte el catálogo.
+ * @author Sara Paloma Martínez-Tizón García, BW0100
+ */
+class TablaSegmentada {
+    private static final int BITS_SEGMENTO = 12;
+    private static final int TAMANO_SEGMENTO = 1 << BITS_SEGMENTO;
+    private static final int MASCARA_SEGMENTO = TAMANO_SEGMENTO - 1;
+
+    private Actividad[][] actividades;
+    private long[][] secuencias;
+    private String[][] claves;
+    private double[][] precios;
+    private int[][] duraciones;
+    private int numSegmentos;
+
+    /**
+     * Crea una tabla sin segmentos
+     */
+    TablaSegmentada() {
+        this.actividades = new Actividad[4][];
+        this.secuencias = new long[4][];
+        this.claves = new String[4][];
+        this.precios = new double[4][];
+        this.duraciones = new int[4][];
+        this.numSegmentos = 0;
+    }
+
+    /**
+     * Devuelve la actividad de una posición
+     * @param i posición
+     * @return actividad o null si el hueco está vacío
+     */
+    Actividad actividad(int i) {
+        return actividades[i >>> BITS_SEGMENTO][i & MASCARA_SEGMENTO]; }
+
+    /**
+     * Devuelve la secuencia de una posición
+     * @param i posición
+     * @return secuencia asignada al entrar la actividad
+     */
+    long secuencia(int i) {
+        return secuencias[i >>> BITS_SEGMENTO][i & MASCARA_SEGMENTO]; }
+
+    /**
+     * Devuelve la clave de búsqueda de una posición
+     * @param i posición
+     * @return nombre normalizado o null si el hueco está vacío
+     */
+    String clave(int i) {
+        return claves[i >>> BITS_SEGMENTO][i & MASCARA_SEGMENTO]; }
+
+    /**
+     * Devuelve el precio con el que está indexada la actividad de una posición
+     * @param i posición
+     * @return precio indexado
+     */
+    double precio(int i) {
+        return precios[i >>> BITS_SEGMENTO][i & MASCARA_SEGMENTO]; }
+
+    /**
+     * Devuelve la duración con la que está indexada la actividad de una posición
+     * @param i posición
+     * @return duración indexada
+     */
+    int duracion(int i) {
+        return duraciones[i >>> BITS_SEGMENTO][i & MASCARA_SEGMENTO]; }
+
+    /**
+     * Guarda una actividad en una posición, reservando su segmento si hace falta
+     * @param i posición
+     * @param actividad actividad
+     * @param secuencia secuencia de la actividad
+     * @param clave nombre normalizado
+     */
+    void poner(int i, Actividad actividad, long secuencia, String clave) {
+        int s = i >>> BITS_SEGMENTO;
+        while (s >= numSegmentos) {
+            agregarSegmento();
+        }
+        actividades[s][i & MASCARA_SEGMENTO] = actividad;
+        secuencias[s][i & MASCARA_SEGMENTO] = secuencia;
+        claves[s][i & MASCARA_SEGMENTO] = clave;
+    }
+
+    /**
+     * Guarda el precio y la duración con los que se indexa una posición ocupada
+     * @param i posición
+     * @param precio precio de la actividad
+     * @param duracion duración de la actividad
+     */
+    void ponerValores(int i, double precio, int duracion) {
+        precios[i >>> BITS_SEGMENTO][i & MASCARA_SEGMENTO] = precio;
+        duraciones[i >>> BITS_SEGMENTO][i & MASCARA_SEGMENTO] = duracion;
+    }
+
+    /**
+     * Cambia la clave de una posición ocupada
+     * @param i posición
+     * @param clave nombre normalizado
+     */
+    void ponerClave(int i, String clave) {
+        claves[i >>> BITS_SEGMENTO][i & MASCARA_SEGMENTO] = clave; }
+
+    /**
+     * Vacía una posición; la secuencia se conserva para que la búsqueda binaria siga funcionando
+     * @param i posición
+     */
+    void vaciar(int i) {
+        actividades[i >>> BITS_SEGMENTO][i & MASCARA_SEGMENTO] = null;
+        claves[i >>> BITS_SEGMENTO][i & MASCARA_SEGMENTO] = null;
+    }
+
+    /**
+     * Busca por búsqueda binaria la posición de una secuencia
+     * @param secuencia secuencia buscada
+     * @param hasta número de posiciones usadas
+     * @return posición o un valor negativo si no está
+     */
+    int buscar(long secuencia, int hasta) {
+        int bajo = 0;
+        int alto = hasta - 1;
+        while (bajo <= alto) {
+            int medio = (bajo + alto) >>> 1;
+            long valor = secuencia(medio);
+            if (valor < secuencia) bajo = medio + 1;
+            else if (valor > secuencia) alto = medio - 1;
+            else return medio;
+        }
+        return -(bajo + 1);
+    }
+
+    /**
+     * Vacía las posiciones desde una dada y libera los segmentos que quedan sin usar
+     * @param desde primera posición que se vacía
+     * @param hasta número de posiciones usadas hasta ahora
+     */
+    void recortar(int desde, int hasta) {
+        for (int i = desde; i < hasta; i++) {
+            vaciar(i);
+        }
+        int necesarios = (desde + MASCARA_SEGMENTO) >>> BITS_SEGMENTO;
+        for (int s = necesarios; s < numSegmentos; s++) {
+            actividades[s] = null;
+            secuencias[s] = null;
+            claves[s] = null;
+            precios[s] = null;
+            duraciones[s] = null;
+        }
+        numSegmentos = Math.min(numSegmentos, necesarios);
+    }
+
+    /**
+     * Reserva un segmento más; solo se copia la lista de segmentos
+     */
+    private void agregarSegmento() {
+        if (numSegmentos == actividades.length) {
+            actividades = Arrays.copyOf(actividades, numSegmentos * 2);
+            secuencias = Arrays.copyOf(secuencias, numSegmentos * 2);
+            claves = Arrays.copyOf(claves, numSegmentos * 2);
+            precios = Arrays.copyOf(precios, numSegmentos * 2);
+            duraciones = Arrays.copyOf(duraciones, numSegmentos * 2);
+        }
+        actividades[numSegmentos] = new Actividad[TAMANO_SEGMENTO];
+        secuencias[numSegmentos] = new long[TAMANO_SEGMENTO];
+        claves[numSegmentos] = new String[TAMANO_SEGMENTO];
+        precios[numSegmentos] = new double[TAMANO_SEGMENTO];
+        duraciones[numSegmentos] = new int[TAMANO_SEGMENTO];
+        numSegmentos++;
+    }
+}
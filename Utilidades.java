@@ -163,6 +163,22 @@ public class Utilidades {
         return formato;
     }
 
+    /**Convierte una duración con el formato de formatearDuracion ("2h 30min", "3h", "45min") a minutos
+     * @param duracion texto con la duración
+     * @return duración en minutos
+     */
+    public static int duracionAMinutos(String duracion) {
+        int minutos = 0;
+        for (String parte : duracion.trim().split(" ")) {
+            if (parte.endsWith("min")) {
+                minutos += Integer.parseInt(parte.substring(0, parte.length() - 3));
+            } else if (parte.endsWith("h")) {
+                minutos += Integer.parseInt(parte.substring(0, parte.length() - 1)) * 60;
+            }
+        }
+        return minutos;
+    }
+
     /**convierte un valor a una string con el precio
      * @param precio numero double del precio
      * @return formato con euros y formateado a US (punto en vez de coma para los decimales)
@@ -1,9 +1,21 @@
 package es.upm;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  *Gestiona un viaje de varios días con actividades planificadas.
  * Controla la inserción, orden y solapamiento de actividades por día y hora.
+ * Cada actividad queda planificada con la duración y el precio que tenía al añadirla:
+ * los totales, toString y guardarItinerario usan esos valores, así que un cambio
+ * posterior en la actividad del catálogo no altera un viaje ya planificado.
  * @author Kai Wei Jiang Xu, BW0067
  */
 public class Viaje {
@@ -24,13 +36,37 @@ public class Viaje {
      * Valor de error en el proceso por solapamiento de actividades (3)
      */
     public static final int ERROR_SOLAPAMIENTO = 3;
+    /**
+     * Valor de una entrada válida de un lote atómico que no se añade porque otra entrada
+     * del lote falló (4)
+     */
+    public static final int ERROR_LOTE_DESCARTADO = 4;
+    /**
+     * Minutos que tiene un día (24 * 60)
+     */
+    public static final int MINUTOS_DIA = 24 * 60;
+    private static final int CAPACIDAD_INICIAL_DIA = 4;
+    private static final BitSet SIN_OCUPACION = new BitSet(0);
     private int numDias;
     private int maxActividadesPorDia;
     private Actividad[][] actividades;
-    private String[][] horasInicio;
+    private int[][] minutosInicio;
+    private int[][] minutosFin;
+    private double[][] preciosPlanificados;
     private int[] numActividadesDia;
+    private BitSet[] ocupacion;
+    private double[] precioDia;
+    private long[] minutosOcupadosDia;
+    private int totalActividades;
+    private double precioTotal;
+    private long minutosOcupadosTotal;
+    private long[] arbolActividades;
+    private double[] arbolPrecios;
+    private long[] arbolMinutos;
 
     /**
+     * Crea un viaje sin reservar memoria para las actividades: cada día se crea
+     * cuando recibe su primera actividad y crece según se necesita
      * @param numDias número de días del viaje
      * @param maxActividades máximo de actividades por día
      */
@@ -38,10 +74,102 @@ public class Viaje {
         this.numDias = numDias;
         this.maxActividadesPorDia = maxActividades;
 
-        this.actividades = new Actividad[numDias][maxActividadesPorDia];
-        this.horasInicio = new String[numDias][maxActividadesPorDia];
+        this.actividades = new Actividad[numDias][];
+        this.minutosInicio = new int[numDias][];
+        this.minutosFin = new int[numDias][];
+        this.preciosPlanificados = new double[numDias][];
         this.numActividadesDia = new int[numDias];
+        this.ocupacion = new BitSet[numDias];
+        this.precioDia = new double[numDias];
+        this.minutosOcupadosDia = new long[numDias];
+        reconstruirArboles();
+    }
+
+    /**
+     * Crea un viaje sin límite de actividades por día
+     * @param numDias número de días del viaje
+     */
+    public Viaje(int numDias) {
+        this(numDias, Integer.MAX_VALUE);
+    }
 
+    /**
+     * Crea una copia independiente de otro viaje que comparte los objetos Actividad
+     * @param origen viaje que se copia
+     */
+    Viaje(Viaje origen) {
+        int capacidad = origen.numActividadesDia.length;
+        this.numDias = origen.numDias;
+        this.maxActividadesPorDia = origen.maxActividadesPorDia;
+        this.actividades = new Actividad[capacidad][];
+        this.minutosInicio = new int[capacidad][];
+        this.minutosFin = new int[capacidad][];
+        this.preciosPlanificados = new double[capacidad][];
+        this.ocupacion = new BitSet[capacidad];
+        this.numActividadesDia = origen.numActividadesDia.clone();
+        this.precioDia = origen.precioDia.clone();
+        this.minutosOcupadosDia = origen.minutosOcupadosDia.clone();
+        this.totalActividades = origen.totalActividades;
+        this.precioTotal = origen.precioTotal;
+        this.minutosOcupadosTotal = origen.minutosOcupadosTotal;
+        this.arbolActividades = origen.arbolActividades.clone();
+        this.arbolPrecios = origen.arbolPrecios.clone();
+        this.arbolMinutos = origen.arbolMinutos.clone();
+        for (int d = 0; d < numDias; d++) {
+            copiarDia(origen, d, d);
+        }
+    }
+
+    /**
+     * Crea un viaje uniendo por orden los días de otros viajes, que no se modifican
+     * @param partes viajes cuyos días se concatenan
+     */
+    Viaje(Viaje[] partes) {
+        int dias = 0;
+        for (Viaje parte : partes) {
+            dias += parte.numDias;
+        }
+        this.numDias = dias;
+        this.maxActividadesPorDia = partes.length == 0 ? 0 : partes[0].maxActividadesPorDia;
+        this.actividades = new Actividad[numDias][];
+        this.minutosInicio = new int[numDias][];
+        this.minutosFin = new int[numDias][];
+        this.preciosPlanificados = new double[numDias][];
+        this.numActividadesDia = new int[numDias];
+        this.precioDia = new double[numDias];
+        this.minutosOcupadosDia = new long[numDias];
+        this.ocupacion = new BitSet[numDias];
+        int d = 0;
+        for (Viaje parte : partes) {
+            for (int i = 0; i < parte.numDias; i++) {
+                copiarDia(parte, i, d);
+                this.numActividadesDia[d] = parte.numActividadesDia[i];
+                this.precioDia[d] = parte.precioDia[i];
+                this.minutosOcupadosDia[d] = parte.minutosOcupadosDia[i];
+                this.totalActividades += parte.numActividadesDia[i];
+                this.precioTotal += parte.precioDia[i];
+                this.minutosOcupadosTotal += parte.minutosOcupadosDia[i];
+                d++;
+            }
+        }
+        reconstruirArboles();
+    }
+
+    /**
+     * Copia el almacenamiento de un día de otro viaje, ajustado a sus actividades
+     * @param origen viaje del que se copia
+     * @param diaOrigen indice del día en el origen
+     * @param diaDestino indice del día en este viaje
+     */
+    private void copiarDia(Viaje origen, int diaOrigen, int diaDestino) {
+        int n = origen.numActividadesDia[diaOrigen];
+        if (n > 0) {
+            actividades[diaDestino] = Arrays.copyOf(origen.actividades[diaOrigen], n);
+            minutosInicio[diaDestino] = Arrays.copyOf(origen.minutosInicio[diaOrigen], n);
+            minutosFin[diaDestino] = Arrays.copyOf(origen.minutosFin[diaOrigen], n);
+            preciosPlanificados[diaDestino] = Arrays.copyOf(origen.preciosPlanificados[diaOrigen], n);
+            ocupacion[diaDestino] = (BitSet) origen.ocupacion[diaOrigen].clone();
+        }
     }
 
     /**
@@ -52,6 +180,67 @@ public class Viaje {
         return numDias;
     }
 
+    /**
+     * Devuelve el valor del atributo maxActividadesPorDia
+     * @return número máximo de actividades por día
+     */
+    public int getMaxActividadesPorDia() {
+        return maxActividadesPorDia;
+    }
+
+    /**
+     * Añade un día vacío al final del viaje
+     * @return indice del nuevo día
+     */
+    public int agregarDia() {
+        int capacidad = numActividadesDia.length;
+        if (numDias == capacidad) {
+            int nueva = Math.max(CAPACIDAD_INICIAL_DIA, capacidad * 2);
+            actividades = Arrays.copyOf(actividades, nueva);
+            minutosInicio = Arrays.copyOf(minutosInicio, nueva);
+            minutosFin = Arrays.copyOf(minutosFin, nueva);
+            preciosPlanificados = Arrays.copyOf(preciosPlanificados, nueva);
+            ocupacion = Arrays.copyOf(ocupacion, nueva);
+            numActividadesDia = Arrays.copyOf(numActividadesDia, nueva);
+            precioDia = Arrays.copyOf(precioDia, nueva);
+            minutosOcupadosDia = Arrays.copyOf(minutosOcupadosDia, nueva);
+            reconstruirArboles();
+        }
+        numDias++;
+        return numDias - 1;
+    }
+
+    /**
+     * Elimina un día del viaje junto con sus actividades; los días siguientes
+     * pasan a ocupar la posición anterior
+     * @param dia indice del día (0 corresponde al primer día)
+     * @return true si se elimina, false si el día no es válido
+     */
+    public boolean eliminarDia(int dia) {
+        if (dia < 0 || dia >= numDias) {
+            return false;
+        }
+        totalActividades -= numActividadesDia[dia];
+        precioTotal = totalActividades == 0 ? 0.0 : precioTotal - precioDia[dia];
+        minutosOcupadosTotal -= minutosOcupadosDia[dia];
+        int siguientes = numDias - dia - 1;
+        System.arraycopy(actividades, dia + 1, actividades, dia, siguientes);
+        System.arraycopy(minutosInicio, dia + 1, minutosInicio, dia, siguientes);
+        System.arraycopy(minutosFin, dia + 1, minutosFin, dia, siguientes);
+        System.arraycopy(preciosPlanificados, dia + 1, preciosPlanificados, dia, siguientes);
+        System.arraycopy(ocupacion, dia + 1, ocupacion, dia, siguientes);
+        System.arraycopy(numActividadesDia, dia + 1, numActividadesDia, dia, siguientes);
+        System.arraycopy(precioDia, dia + 1, precioDia, dia, siguientes);
+        System.arraycopy(minutosOcupadosDia, dia + 1, minutosOcupadosDia, dia, siguientes);
+        numDias--;
+        numActividadesDia[numDias] = 0;
+        precioDia[numDias] = 0.0;
+        minutosOcupadosDia[numDias] = 0;
+        redimensionarDia(numDias, 0);
+        reconstruirArboles();
+        return true;
+    }
+
     /**
      * Devuelve el número de actividades planificadas en el día indicado
      * @param dia indice del día (0 corresponde al primer día)
@@ -65,9 +254,107 @@ public class Viaje {
     }
 
 
+    /**
+     * Devuelve el número total de actividades planificadas en el viaje
+     * @return número de actividades de todos los días
+     */
+    public int getNumActividades() {
+        return totalActividades;
+    }
+
+    /**
+     * Devuelve el precio total del viaje. Cada actividad cuenta con el precio
+     * que tenía cuando se planificó
+     * @return suma de los precios de todas las actividades planificadas
+     */
+    public double getPrecioTotal() {
+        return precioTotal;
+    }
+
+    /**
+     * Devuelve los minutos ocupados por actividades en todo el viaje
+     * @return suma de las duraciones planificadas
+     */
+    public long getMinutosOcupados() {
+        return minutosOcupadosTotal;
+    }
+
+    /**
+     * Devuelve el precio de las actividades planificadas en un día
+     * @param dia indice del día (0 corresponde al primer día)
+     * @return precio del día (0 si el día no es válido)
+     */
+    public double getPrecioDia(int dia) {
+        if (dia < 0 || dia >= numDias) {
+            return 0.0;
+        }
+        return precioDia[dia];
+    }
+
+    /**
+     * Devuelve los minutos ocupados por actividades en un día
+     * @param dia indice del día (0 corresponde al primer día)
+     * @return minutos ocupados del día (0 si el día no es válido)
+     */
+    public long getMinutosOcupadosDia(int dia) {
+        if (dia < 0 || dia >= numDias) {
+            return 0;
+        }
+        return minutosOcupadosDia[dia];
+    }
+
+    /**
+     * Devuelve el número de actividades planificadas entre dos días, ambos incluidos
+     * @param desde indice del primer día
+     * @param hasta indice del último día
+     * @return número de actividades del rango
+     */
+    public long getNumActividadesDias(int desde, int hasta) {
+        int primero = Math.max(desde, 0);
+        int ultimo = Math.min(hasta, numDias - 1);
+        if (primero > ultimo) {
+            return 0;
+        }
+        return sumaPrefijo(arbolActividades, ultimo + 1) - sumaPrefijo(arbolActividades, primero);
+    }
+
+    /**
+     * Devuelve el precio de las actividades planificadas entre dos días, ambos incluidos
+     * @param desde indice del primer día
+     * @param hasta indice del último día
+     * @return precio del rango
+     */
+    public double getPrecioDias(int desde, int hasta) {
+        if (getNumActividadesDias(desde, hasta) == 0) {
+            return 0.0;
+        }
+        int primero = Math.max(desde, 0);
+        int ultimo = Math.min(hasta, numDias - 1);
+        return sumaPrefijo(arbolPrecios, ultimo + 1) - sumaPrefijo(arbolPrecios, primero);
+    }
+
+    /**
+     * Devuelve los minutos ocupados entre dos días, ambos incluidos
+     * @param desde indice del primer día
+     * @param hasta indice del último día
+     * @return minutos ocupados del rango
+     */
+    public long getMinutosOcupadosDias(int desde, int hasta) {
+        int primero = Math.max(desde, 0);
+        int ultimo = Math.min(hasta, numDias - 1);
+        if (primero > ultimo) {
+            return 0;
+        }
+        return sumaPrefijo(arbolMinutos, ultimo + 1) - sumaPrefijo(arbolMinutos, primero);
+    }
+
     /**
      * Añade un actividad al día y hora indicados verificando que no
-     * haya solapamientos y que el día sea válido
+     * haya solapamientos y que el día sea válido.
+     * El día se mantiene ordenado por hora de inicio, por lo que la comprobación
+     * de solapamiento y la posición de inserción se obtienen por búsqueda binaria.
+     * Internamente las horas se guardan en minutos; el fin se fija con la duración
+     * que tiene la actividad en el momento de planificarla
      *
      * @param dia número de día
      * @param actividad actividad a añadir
@@ -75,6 +362,21 @@ public class Viaje {
      * @return código de resultado (éxito, día inválido, dia completo o solapamiento)
      */
     public int agregarActividad(int dia, Actividad actividad, String horaInicio) {
+        return agregarPlanificada(dia, actividad, Utilidades.horaAMinutos(horaInicio),
+                actividad.getDuracionMinutos(), actividad.getPrecio());
+    }
+
+    /**
+     * Añade una actividad con la duración y el precio con los que se planificó, que pueden
+     * no ser los que tiene ahora (por ejemplo, al cargar un itinerario guardado)
+     * @param dia número de día
+     * @param actividad actividad a añadir
+     * @param inicioNuevo minuto de inicio
+     * @param duracion duración planificada en minutos
+     * @param precio precio planificado
+     * @return código de resultado (éxito, día inválido, dia completo o solapamiento)
+     */
+    private int agregarPlanificada(int dia, Actividad actividad, int inicioNuevo, int duracion, double precio) {
 
         if (dia < 0 || dia >= numDias) {
             return ERROR_DIA_INVALIDO;
@@ -84,61 +386,373 @@ public class Viaje {
             return ERROR_DIA_COMPLETO;
         }
 
-        int inicioNuevo = Utilidades.horaAMinutos(horaInicio);
-        int finNuevo = inicioNuevo + actividad.getDuracionMinutos();
-
-        for (int i = 0; i < numActividadesDia[dia]; i++) {
-            int inicioExistente = Utilidades.horaAMinutos(horasInicio[dia][i]);
-            int finExistente = inicioExistente + actividades[dia][i].getDuracionMinutos();
+        int finNuevo = inicioNuevo + duracion;
 
-
-            boolean compatibles = (finExistente <= inicioNuevo) || (finNuevo <= inicioExistente);
-            if (!compatibles) {
-                return ERROR_SOLAPAMIENTO;
-            }
+        if (haySolapamiento(dia, inicioNuevo, finNuevo)) {
+            return ERROR_SOLAPAMIENTO;
         }
 
-        int pos = numActividadesDia[dia];
+        // Se inserta detrás de las que empiezan a la misma hora, como hacía la ordenación estable
+        int pos = buscarPrimeraPosicion(dia, inicioNuevo + 1);
+        int n = numActividadesDia[dia];
+        asegurarCapacidad(dia, n + 1);
+        System.arraycopy(actividades[dia], pos, actividades[dia], pos + 1, n - pos);
+        System.arraycopy(minutosInicio[dia], pos, minutosInicio[dia], pos + 1, n - pos);
+        System.arraycopy(minutosFin[dia], pos, minutosFin[dia], pos + 1, n - pos);
+        System.arraycopy(preciosPlanificados[dia], pos, preciosPlanificados[dia], pos + 1, n - pos);
         actividades[dia][pos] = actividad;
-        horasInicio[dia][pos] = horaInicio;
+        minutosInicio[dia][pos] = inicioNuevo;
+        minutosFin[dia][pos] = finNuevo;
+        preciosPlanificados[dia][pos] = precio;
         numActividadesDia[dia]++;
-
-        ordenarActividadesDia(dia);
+        acumular(dia, 1, precio, finNuevo - inicioNuevo);
+        marcarOcupacion(dia, inicioNuevo, finNuevo, true);
 
         return EXITO;
     }
 
     /**
-     * Ordena las actividades de un día por hora de inicio, manteniendo
-     * los arrays internos(horas x actividades)
-     * @param dia indice del día que se va a ordenar
+     * Añade un lote de actividades de una vez. Cada entrada se valida contra el plan
+     * existente y contra las entradas anteriores del lote que hayan sido aceptadas,
+     * con las mismas reglas que agregarActividad. Al final cada día se ordena una
+     * única vez mezclando las nuevas con las existentes
+     *
+     * @param dias número de día de cada entrada
+     * @param nuevas actividad de cada entrada
+     * @param horas hora de inicio de cada entrada en formato HH:MM
+     * @param atomico si es true y alguna entrada falla, no se añade ninguna: las que fallaron
+     *                llevan su error y las válidas ERROR_LOTE_DESCARTADO
+     * @return código de resultado de cada entrada (éxito, día inválido, dia completo, solapamiento
+     *         o lote descartado); solo las entradas con EXITO se han añadido
      */
-    private void ordenarActividadesDia(int dia) {
-        int n = numActividadesDia[dia];
-        boolean cambiado;
+    public int[] agregarActividades(int[] dias, Actividad[] nuevas, String[] horas, boolean atomico) {
+        int total = dias.length;
+        int[] codigos = new int[total];
+        int[] inicios = new int[total];
+        int[] fines = new int[total];
+        int[] pendientesDia = new int[numDias];
+        List<TreeMap<Integer, Integer>> lote = new ArrayList<>(Collections.nCopies(numDias, null));
+        int aceptadas = 0;
 
-        do {
-            cambiado = false;
-            for (int i = 0; i < n - 1; i++) {
-                int h1 = Utilidades.horaAMinutos(horasInicio[dia][i]);
-                int h2 = Utilidades.horaAMinutos(horasInicio[dia][i + 1]);
+        for (int i = 0; i < total; i++) {
+            int dia = dias[i];
+            if (dia < 0 || dia >= numDias) {
+                codigos[i] = ERROR_DIA_INVALIDO;
+                continue;
+            }
+            if (numActividadesDia[dia] + pendientesDia[dia] >= maxActividadesPorDia) {
+                codigos[i] = ERROR_DIA_COMPLETO;
+                continue;
+            }
+            inicios[i] = Utilidades.horaAMinutos(horas[i]);
+            fines[i] = inicios[i] + nuevas[i].getDuracionMinutos();
+            if (lote.get(dia) == null) {
+                lote.set(dia, new TreeMap<>());
+            }
+            if (haySolapamiento(dia, inicios[i], fines[i]) || solapaConLote(lote.get(dia), inicios[i], fines[i])) {
+                codigos[i] = ERROR_SOLAPAMIENTO;
+                continue;
+            }
+            codigos[i] = EXITO;
+            lote.get(dia).merge(inicios[i], fines[i], Math::max);
+            pendientesDia[dia]++;
+            aceptadas++;
+        }
 
-                if (h1 > h2) {
+        if (atomico && aceptadas < total) {
+            for (int i = 0; i < total; i++) {
+                if (codigos[i] == EXITO) {
+                    codigos[i] = ERROR_LOTE_DESCARTADO;
+                }
+            }
+            return codigos;
+        }
+        if (aceptadas == 0) {
+            return codigos;
+        }
 
-                    String tmpHora = horasInicio[dia][i];
-                    horasInicio[dia][i] = horasInicio[dia][i + 1];
-                    horasInicio[dia][i + 1] = tmpHora;
+        Integer[] orden = new Integer[aceptadas];
+        int k = 0;
+        for (int i = 0; i < total; i++) {
+            if (codigos[i] == EXITO) {
+                orden[k] = i;
+                k++;
+            }
+        }
+        Arrays.sort(orden, Comparator.comparingInt((Integer i) -> dias[i])
+                .thenComparingInt(i -> inicios[i])
+                .thenComparingInt(i -> i));
 
-                    Actividad tmpAct = actividades[dia][i];
-                    actividades[dia][i] = actividades[dia][i + 1];
-                    actividades[dia][i + 1] = tmpAct;
+        int desde = 0;
+        while (desde < aceptadas) {
+            int dia = dias[orden[desde]];
+            int hasta = desde + pendientesDia[dia];
+            mezclarEnDia(dia, orden, desde, hasta, nuevas, inicios, fines);
+            desde = hasta;
+        }
+        return codigos;
+    }
 
-                    cambiado = true;
-                }
+    /**
+     * Comprueba si [inicio, fin) se solapa con las entradas ya aceptadas de un lote.
+     * El mapa guarda para cada minuto de inicio el mayor minuto de fin
+     * @param aceptadas entradas aceptadas del día (inicio a fin)
+     * @param inicio minuto de inicio
+     * @param fin minuto de fin
+     * @return true si hay solapamiento
+     */
+    private static boolean solapaConLote(TreeMap<Integer, Integer> aceptadas, int inicio, int fin) {
+        Map.Entry<Integer, Integer> entrada = aceptadas.lowerEntry(fin);
+        while (entrada != null) {
+            if (entrada.getValue() > inicio) {
+                return true;
+            }
+            if (entrada.getValue() > entrada.getKey()) {
+                return false;
+            }
+            entrada = aceptadas.lowerEntry(entrada.getKey());
+        }
+        return false;
+    }
+
+    /**
+     * Mezcla de atrás hacia delante las entradas ordenadas de un lote con las
+     * actividades ya planificadas en el día, sin volver a ordenar
+     * @param dia indice del día
+     * @param orden indices de las entradas ordenadas por hora de inicio
+     * @param desde primera posición de orden que pertenece al día
+     * @param hasta posición siguiente a la última que pertenece al día
+     * @param nuevas actividades del lote
+     * @param inicios minutos de inicio del lote
+     * @param fines minutos de fin del lote
+     */
+    private void mezclarEnDia(int dia, Integer[] orden, int desde, int hasta,
+                              Actividad[] nuevas, int[] inicios, int[] fines) {
+        int existente = numActividadesDia[dia] - 1;
+        int nueva = hasta - 1;
+        int destino = numActividadesDia[dia] + (hasta - desde) - 1;
+        asegurarCapacidad(dia, destino + 1);
+        double precio = 0.0;
+        long minutos = 0;
+        while (nueva >= desde) {
+            int i = orden[nueva];
+            if (existente >= 0 && minutosInicio[dia][existente] > inicios[i]) {
+                actividades[dia][destino] = actividades[dia][existente];
+                minutosInicio[dia][destino] = minutosInicio[dia][existente];
+                minutosFin[dia][destino] = minutosFin[dia][existente];
+                preciosPlanificados[dia][destino] = preciosPlanificados[dia][existente];
+                existente--;
+            } else {
+                actividades[dia][destino] = nuevas[i];
+                minutosInicio[dia][destino] = inicios[i];
+                minutosFin[dia][destino] = fines[i];
+                preciosPlanificados[dia][destino] = nuevas[i].getPrecio();
+                marcarOcupacion(dia, inicios[i], fines[i], true);
+                precio += nuevas[i].getPrecio();
+                minutos += fines[i] - inicios[i];
+                nueva--;
+            }
+            destino--;
+        }
+        numActividadesDia[dia] += hasta - desde;
+        acumular(dia, hasta - desde, precio, minutos);
+    }
+
+    /**
+     * Busca la primera posición del día cuya hora de inicio es mayor o igual
+     * que el minuto indicado
+     * @param dia indice del día
+     * @param minuto minuto del día buscado
+     * @return posición encontrada (numActividadesDia si todas empiezan antes)
+     */
+    private int buscarPrimeraPosicion(int dia, int minuto) {
+        int bajo = 0;
+        int alto = numActividadesDia[dia];
+        // Caso habitual al cargar o planificar en orden: todo empieza antes
+        if (alto == 0 || minutosInicio[dia][alto - 1] < minuto) {
+            return alto;
+        }
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (minutosInicio[dia][medio] < minuto) {
+                bajo = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        return bajo;
+    }
+
+    /**
+     * Comprueba si el intervalo [inicio, fin) se solapa con alguna actividad del día.
+     * Solo pueden solaparse las actividades que empiezan antes de fin; como las del día
+     * no se solapan entre sí, basta con revisar la última de ellas (y las de duración cero
+     * que compartan hora con otra)
+     * @param dia indice del día
+     * @param inicio minuto de inicio del intervalo
+     * @param fin minuto de fin del intervalo
+     * @return true si hay solapamiento
+     */
+    private boolean haySolapamiento(int dia, int inicio, int fin) {
+        int i = buscarPrimeraPosicion(dia, fin) - 1;
+        while (i >= 0) {
+            int inicioExistente = minutosInicio[dia][i];
+            int finExistente = minutosFin[dia][i];
+            if (finExistente > inicio) {
+                return true;
+            }
+            if (finExistente > inicioExistente) {
+                return false;
             }
-        } while (cambiado);
+            i--;
+        }
+        return false;
+    }
+
+
+    /**
+     * Hace crecer el almacenamiento de un día, al doble como mínimo y sin pasar
+     * del máximo de actividades por día
+     * @param dia indice del día
+     * @param necesaria número de posiciones que se necesitan
+     */
+    private void asegurarCapacidad(int dia, int necesaria) {
+        int actual = actividades[dia] == null ? 0 : actividades[dia].length;
+        if (necesaria > actual) {
+            long deseada = Math.max((long) actual * 2, Math.max(necesaria, CAPACIDAD_INICIAL_DIA));
+            redimensionarDia(dia, (int) Math.min(deseada, maxActividadesPorDia));
+        }
+    }
+
+    /**
+     * Cambia el tamaño del almacenamiento de un día conservando sus actividades.
+     * Con capacidad 0 el día deja de ocupar memoria
+     * @param dia indice del día
+     * @param capacidad nuevo número de posiciones
+     */
+    private void redimensionarDia(int dia, int capacidad) {
+        if (capacidad == 0) {
+            actividades[dia] = null;
+            minutosInicio[dia] = null;
+            minutosFin[dia] = null;
+            preciosPlanificados[dia] = null;
+            ocupacion[dia] = null;
+        } else if (actividades[dia] == null) {
+            actividades[dia] = new Actividad[capacidad];
+            minutosInicio[dia] = new int[capacidad];
+            minutosFin[dia] = new int[capacidad];
+            preciosPlanificados[dia] = new double[capacidad];
+            ocupacion[dia] = new BitSet(MINUTOS_DIA);
+        } else {
+            actividades[dia] = Arrays.copyOf(actividades[dia], capacidad);
+            minutosInicio[dia] = Arrays.copyOf(minutosInicio[dia], capacidad);
+            minutosFin[dia] = Arrays.copyOf(minutosFin[dia], capacidad);
+            preciosPlanificados[dia] = Arrays.copyOf(preciosPlanificados[dia], capacidad);
+        }
+    }
+
+    /**
+     * Marca o libera en el mapa de ocupación del día los minutos de [inicio, fin)
+     * que caen dentro del día
+     * @param dia indice del día
+     * @param inicio minuto de inicio
+     * @param fin minuto de fin
+     * @param ocupado true para marcar, false para liberar
+     */
+    private void marcarOcupacion(int dia, int inicio, int fin, boolean ocupado) {
+        int desde = Math.max(inicio, 0);
+        int hasta = Math.min(fin, MINUTOS_DIA);
+        if (desde < hasta) {
+            ocupacion[dia].set(desde, hasta, ocupado);
+        }
+    }
+
+    /**
+     * Devuelve la hora más temprana del día en la que cabe una actividad de la
+     * duración indicada sin solaparse con las ya planificadas y terminando antes
+     * de que acabe el día
+     * @param dia indice del día (0 corresponde al primer día)
+     * @param duracionMinutos duración de la actividad en minutos
+     * @return hora en formato HH:MM o null si no hay hueco o los datos no son válidos
+     */
+    public String buscarHuecoLibre(int dia, int duracionMinutos) {
+        return buscarHuecoLibre(dia, duracionMinutos, "00:00", null);
+    }
+
+    /**
+     * Devuelve la hora más temprana dentro de una franja en la que cabe una actividad
+     * de la duración indicada sin solaparse con las ya planificadas
+     * @param dia indice del día (0 corresponde al primer día)
+     * @param duracionMinutos duración de la actividad en minutos
+     * @param desde hora mínima de inicio en formato HH:MM
+     * @param hasta hora máxima de fin en formato HH:MM (null para el final del día)
+     * @return hora en formato HH:MM o null si no hay hueco o los datos no son válidos
+     */
+    public String buscarHuecoLibre(int dia, int duracionMinutos, String desde, String hasta) {
+        if (dia < 0 || dia >= numDias || duracionMinutos <= 0) {
+            return null;
+        }
+        int limite = hasta == null ? MINUTOS_DIA : Utilidades.horaAMinutos(hasta);
+        int minuto = buscarHueco(dia, duracionMinutos, Utilidades.horaAMinutos(desde), limite);
+        if (minuto == -1) {
+            return null;
+        }
+        return Utilidades.minutosAHora(minuto);
+    }
+
+    /**
+     * Devuelve, para cada hueco libre del día en el que cabe una actividad de la
+     * duración indicada, la hora más temprana a la que puede empezar
+     * @param dia indice del día (0 corresponde al primer día)
+     * @param duracionMinutos duración de la actividad en minutos
+     * @return horas en formato HH:MM en orden cronológico (vacío si no hay huecos)
+     */
+    public String[] buscarHuecosLibres(int dia, int duracionMinutos) {
+        if (dia < 0 || dia >= numDias || duracionMinutos <= 0) {
+            return new String[0];
+        }
+        int[] inicios = new int[numActividadesDia[dia] + 1];
+        int contador = 0;
+        int minuto = buscarHueco(dia, duracionMinutos, 0, MINUTOS_DIA);
+        while (minuto != -1) {
+            inicios[contador] = minuto;
+            contador++;
+            int finHueco = ocupacion[dia] == null ? -1 : ocupacion[dia].nextSetBit(minuto);
+            minuto = finHueco == -1 ? -1 : buscarHueco(dia, duracionMinutos, finHueco, MINUTOS_DIA);
+        }
+        String[] resultado = new String[contador];
+        for (int i = 0; i < contador; i++) {
+            resultado[i] = Utilidades.minutosAHora(inicios[i]);
+        }
+        return resultado;
     }
 
+    /**
+     * Recorre los tramos libres del mapa de ocupación saltando de palabra en palabra.
+     * Cada candidato se confirma con la misma comprobación que agregarActividad, que solo
+     * lo descarta en casos que el mapa no representa (actividades de duración cero o
+     * fuera del día)
+     * @param dia indice del día
+     * @param duracion duración en minutos (mayor que cero)
+     * @param desde minuto mínimo de inicio
+     * @param hasta minuto máximo de fin
+     * @return minuto de inicio del hueco o -1 si no hay ninguno
+     */
+    private int buscarHueco(int dia, int duracion, int desde, int hasta) {
+        BitSet mapa = ocupacion[dia] == null ? SIN_OCUPACION : ocupacion[dia];
+        int minuto = mapa.nextClearBit(Math.max(desde, 0));
+        while (minuto < MINUTOS_DIA && minuto + duracion <= hasta) {
+            int siguienteOcupado = mapa.nextSetBit(minuto);
+            if (siguienteOcupado != -1 && siguienteOcupado < minuto + duracion) {
+                minuto = mapa.nextClearBit(siguienteOcupado);
+            } else if (haySolapamiento(dia, minuto, minuto + duracion)) {
+                minuto++;
+            } else {
+                return minuto;
+            }
+        }
+        return -1;
+    }
 
     /**
      * Elimina la actividad asociada al día y hora especificados, si existe
@@ -147,34 +761,167 @@ public class Viaje {
      * @return true si se elimina, false en caso contrario
      */
     public boolean eliminarActividad(int dia, String horaInicio) {
-        if (dia < 0 || dia >= numDias) {
+        int indice = buscarIndice(dia, horaInicio);
+        if (indice == -1) {
             return false;
         }
+        eliminarEn(dia, indice);
+        return true;
+    }
 
-        int n = numActividadesDia[dia];
-        int indice = -1;
-
-        for (int i = 0; i < n; i++) {
-            if (horasInicio[dia][i].equals(horaInicio)) {
-                indice = i;
-                break;
+    /**
+     * Elimina todas las apariciones de una actividad en el viaje
+     * @param actividad actividad que se quiere quitar (se compara por identidad)
+     * @return número de apariciones eliminadas
+     */
+    public int eliminarActividad(Actividad actividad) {
+        int eliminadas = 0;
+        for (int d = 0; d < numDias; d++) {
+            for (int i = numActividadesDia[d] - 1; i >= 0; i--) {
+                if (actividades[d][i] == actividad) {
+                    eliminarEn(d, i);
+                    eliminadas++;
+                }
             }
         }
+        return eliminadas;
+    }
 
+    /**
+     * Devuelve la actividad planificada en el día y hora especificados
+     * @param dia índice del día (0 corresponde al primer día)
+     * @param horaInicio hora en formato HH:MM
+     * @return actividad encontrada o null si no hay ninguna
+     */
+    public Actividad obtenerActividad(int dia, String horaInicio) {
+        int indice = buscarIndice(dia, horaInicio);
         if (indice == -1) {
-            return false;
+            return null;
         }
+        return actividades[dia][indice];
+    }
 
-        for (int i = indice; i < n - 1; i++) {
-            actividades[dia][i] = actividades[dia][i + 1];
-            horasInicio[dia][i] = horasInicio[dia][i + 1];
+    /**
+     * Busca la posición de la actividad que empieza a la hora indicada
+     * @param dia indice del día
+     * @param horaInicio hora en formato HH:MM
+     * @return posición en el día o -1 si no existe o los datos no son válidos
+     */
+    private int buscarIndice(int dia, String horaInicio) {
+        if (dia < 0 || dia >= numDias) {
+            return -1;
         }
 
+        int minuto;
+        try {
+            minuto = Utilidades.horaAMinutos(horaInicio);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return -1;
+        }
+
+        int indice = buscarPrimeraPosicion(dia, minuto);
+        if (indice == numActividadesDia[dia] || minutosInicio[dia][indice] != minuto) {
+            return -1;
+        }
+        return indice;
+    }
+
+    /**
+     * Quita la actividad de una posición del día desplazando las siguientes
+     * @param dia indice del día
+     * @param indice posición de la actividad
+     */
+    private void eliminarEn(int dia, int indice) {
+        int n = numActividadesDia[dia];
+        marcarOcupacion(dia, minutosInicio[dia][indice], minutosFin[dia][indice], false);
+        double precio = preciosPlanificados[dia][indice];
+        long minutos = minutosFin[dia][indice] - minutosInicio[dia][indice];
+
+        System.arraycopy(actividades[dia], indice + 1, actividades[dia], indice, n - indice - 1);
+        System.arraycopy(minutosInicio[dia], indice + 1, minutosInicio[dia], indice, n - indice - 1);
+        System.arraycopy(minutosFin[dia], indice + 1, minutosFin[dia], indice, n - indice - 1);
+        System.arraycopy(preciosPlanificados[dia], indice + 1, preciosPlanificados[dia], indice, n - indice - 1);
+
         actividades[dia][n - 1] = null;
-        horasInicio[dia][n - 1] = null;
         numActividadesDia[dia]--;
+        acumular(dia, -1, -precio, -minutos);
+        int capacidad = actividades[dia].length;
+        if (n - 1 == 0) {
+            redimensionarDia(dia, 0);
+        } else if (n - 1 <= capacidad / 4 && capacidad > CAPACIDAD_INICIAL_DIA) {
+            redimensionarDia(dia, capacidad / 2);
+        }
+    }
 
-        return true;
+    /**
+     * Actualiza los totales del día, del viaje y los árboles de Fenwick por día
+     * @param dia indice del día
+     * @param cantidad variación del número de actividades
+     * @param precio variación del precio
+     * @param minutos variación de los minutos ocupados
+     */
+    private void acumular(int dia, int cantidad, double precio, long minutos) {
+        totalActividades += cantidad;
+        minutosOcupadosDia[dia] += minutos;
+        minutosOcupadosTotal += minutos;
+        // Al vaciarse se reinicia para no arrastrar errores de redondeo
+        precioDia[dia] = numActividadesDia[dia] == 0 ? 0.0 : precioDia[dia] + precio;
+        precioTotal = totalActividades == 0 ? 0.0 : precioTotal + precio;
+        for (int i = dia + 1; i < arbolActividades.length; i += i & -i) {
+            arbolActividades[i] += cantidad;
+            arbolPrecios[i] += precio;
+            arbolMinutos[i] += minutos;
+        }
+    }
+
+    /**
+     * Construye en tiempo lineal los árboles de Fenwick a partir de los totales por día.
+     * Cubren toda la capacidad reservada para que añadir un día no obligue a rehacerlos
+     */
+    private void reconstruirArboles() {
+        int capacidad = numActividadesDia.length;
+        arbolActividades = new long[capacidad + 1];
+        arbolPrecios = new double[capacidad + 1];
+        arbolMinutos = new long[capacidad + 1];
+        for (int i = 1; i <= capacidad; i++) {
+            arbolActividades[i] += numActividadesDia[i - 1];
+            arbolPrecios[i] += precioDia[i - 1];
+            arbolMinutos[i] += minutosOcupadosDia[i - 1];
+            int padre = i + (i & -i);
+            if (padre <= capacidad) {
+                arbolActividades[padre] += arbolActividades[i];
+                arbolPrecios[padre] += arbolPrecios[i];
+                arbolMinutos[padre] += arbolMinutos[i];
+            }
+        }
+    }
+
+    /**
+     * Suma de los primeros días de un árbol de Fenwick
+     * @param arbol árbol de Fenwick indexado desde 1
+     * @param dias número de días que se suman
+     * @return suma de los días 0 a dias - 1
+     */
+    private static long sumaPrefijo(long[] arbol, int dias) {
+        long suma = 0;
+        for (int i = dias; i > 0; i -= i & -i) {
+            suma += arbol[i];
+        }
+        return suma;
+    }
+
+    /**
+     * Suma de los primeros días de un árbol de Fenwick
+     * @param arbol árbol de Fenwick indexado desde 1
+     * @param dias número de días que se suman
+     * @return suma de los días 0 a dias - 1
+     */
+    private static double sumaPrefijo(double[] arbol, int dias) {
+        double suma = 0.0;
+        for (int i = dias; i > 0; i -= i & -i) {
+            suma += arbol[i];
+        }
+        return suma;
     }
 
     /**
@@ -197,16 +944,14 @@ public class Viaje {
 
 
     /**
-     * Genera una descripción del itinerario completo con actividades por día
+     * Genera una descripción del itinerario completo con actividades por día.
+     * El precio del resumen es el planificado (ver getPrecioTotal)
      * @return texto con la planificación del viaje
      */
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
 
-        int totalActividades = 0;
-        double precioTotal = 0.0;
-
         for (int d = 0; d < numDias; d++) {
             sb.append("-------------------------------------------------------------------\n");
             sb.append("Día ").append(d + 1).append("\n");
@@ -219,13 +964,10 @@ public class Viaje {
             } else {
                 for (int i = 0; i < n; i++) {
                     Actividad act = actividades[d][i];
-                    sb.append(horasInicio[d][i])
+                    sb.append(Utilidades.minutosAHora(minutosInicio[d][i]))
                             .append(" ")
                             .append(act.getNombre())
                             .append("\n");
-
-                    totalActividades++;
-                    precioTotal += act.getPrecio();
                 }
             }
             sb.append("\n");
@@ -243,15 +985,13 @@ public class Viaje {
 
     /**
      * Guardar el itinerario completo del viaje en un fichero de texto,
-     * utilizando el formato compacto especificado.
+     * utilizando el formato compacto especificado. La duración y el precio de cada
+     * actividad, y el precio total, son los planificados, no los que tenga ahora la actividad.
      *
      * @param nombreArchivo Nombre con el que se quiere guardar el archivo
      * @throws IOException En caso de error continua el flujo del programa y no lo interrumpe
      */
     public void guardarItinerario(String nombreArchivo) throws IOException{
-        int totalActividades = 0;
-        double precioTotal = 0.0;
-
         try (PrintWriter writer = new PrintWriter(nombreArchivo)){
 
             for (int d = 0; d < numDias; d++){
@@ -262,17 +1002,13 @@ public class Viaje {
                 } else{
                     for (int i = 0; i < n; i++){
                         Actividad act=actividades[d][i];
-                        String hora=horasInicio[d][i];
+                        String hora=Utilidades.minutosAHora(minutosInicio[d][i]);
                         writer.print(hora + " " + act.getNombre()
-                                + " (dur " + Utilidades.formatearDuracion(act.getDuracionMinutos())
-                                + ", " + Utilidades.formatearPrecio(act.getPrecio()) + ")");
-
+                                + " (dur " + Utilidades.formatearDuracion(minutosFin[d][i] - minutosInicio[d][i])
+                                + ", " + Utilidades.formatearPrecio(preciosPlanificados[d][i]) + ")");
                         if (i < n - 1){
                             writer.print("; ");
                         }
-
-                        totalActividades++;
-                        precioTotal+=act.getPrecio();
                     }
                 }
                 writer.print("\n");
@@ -281,4 +1017,142 @@ public class Viaje {
                     + "; Actividades: "+totalActividades
                     + "; Precio total: "+Utilidades.formatearPrecio(precioTotal)+"\n");
         }
-    }}
\ No newline at end of file
+    }
+
+    /**
+     * Reconstruye un viaje a partir de un fichero escrito por guardarItinerario.
+     * Igual que cargarItinerario con informe, pero sin devolver los avisos
+     *
+     * @param nombreArchivo fichero con el itinerario
+     * @param catalogo catálogo con el que se resuelven los nombres
+     * @param maxActividadesPorDia máximo de actividades por día del viaje
+     * @return viaje cargado
+     * @throws IOException si hay error de lectura
+     */
+    public static Viaje cargarItinerario(String nombreArchivo, CatalogoActividades catalogo,
+                                         int maxActividadesPorDia) throws IOException {
+        return cargarItinerario(nombreArchivo, catalogo, maxActividadesPorDia, new InformeCarga());
+    }
+
+    /**
+     * Reconstruye un viaje a partir de un fichero escrito por guardarItinerario.
+     * El fichero se lee línea a línea y, como las actividades de cada día están en
+     * orden, cada inserción se hace al final del día sin reordenar. Los nombres se
+     * resuelven con el índice exacto del catálogo; si alguno no está, se crea una actividad.
+     * Cada entrada se planifica con la duración y el precio guardados, no con los que tenga
+     * ahora la actividad del catálogo, así que guardar el viaje cargado da el mismo fichero.
+     * Las entradas mal formadas o que ya no encajan (día completo o solapamiento) se
+     * descartan y se anotan en el informe con su número de línea
+     *
+     * @param nombreArchivo fichero con el itinerario
+     * @param catalogo catálogo con el que se resuelven los nombres
+     * @param maxActividadesPorDia máximo de actividades por día del viaje
+     * @param informe informe donde se cuentan las entradas leídas y añadidas y se anotan las descartadas
+     * @return viaje cargado
+     * @throws IOException si hay error de lectura
+     */
+    public static Viaje cargarItinerario(String nombreArchivo, CatalogoActividades catalogo,
+                                         int maxActividadesPorDia, InformeCarga informe) throws IOException {
+        HashMap<String, Actividad> noCatalogadas = new HashMap<>();
+        Viaje viaje = new Viaje(0, maxActividadesPorDia);
+        try (BufferedReader reader = new BufferedReader(new FileReader(nombreArchivo))) {
+            String linea;
+            long numLinea = 0;
+            while ((linea = reader.readLine()) != null) {
+                numLinea++;
+                // Se evita comparar "Día" por si el fichero se escribió con otra codificación
+                int separador = linea.indexOf(": ");
+                if (separador != -1 && !linea.startsWith("Resumen")) {
+                    int dia = viaje.agregarDia();
+                    cargarDia(viaje, dia, linea, separador + 2, catalogo, noCatalogadas, numLinea, informe);
+                }
+            }
+        }
+        return viaje;
+    }
+
+    /**
+     * Añade al viaje las actividades de una línea "Día N: ..." del itinerario.
+     * Cada entrada tiene la forma "HH:MM nombre (dur D, P €)" y termina en un paréntesis
+     * seguido de "; HH:MM " o del final de la línea
+     * @param viaje viaje que se está cargando
+     * @param dia indice del día
+     * @param linea línea completa del fichero
+     * @param pos posición donde empiezan las actividades
+     * @param catalogo catálogo con el que se resuelven los nombres
+     * @param noCatalogadas actividades creadas para nombres que no están en el catálogo
+     * @param numLinea número de la línea en el fichero
+     * @param informe informe de la carga
+     */
+    private static void cargarDia(Viaje viaje, int dia, String linea, int pos, CatalogoActividades catalogo,
+                                  HashMap<String, Actividad> noCatalogadas, long numLinea, InformeCarga informe) {
+        if (linea.startsWith("---", pos)) {
+            return;
+        }
+        while (pos + 6 <= linea.length()) {
+            String hora = linea.substring(pos, pos + 5);
+            int fin = linea.indexOf(')', pos);
+            while (fin != -1 && fin != linea.length() - 1
+                    && !(linea.startsWith("; ", fin + 1) && esHora(linea, fin + 3))) {
+                fin = linea.indexOf(')', fin + 1);
+            }
+            if (fin == -1) {
+                informe.contarEntrada(false);
+                informe.anotar(numLinea, "Entrada incompleta: \"" + linea.substring(pos) + "\"");
+                return;
+            }
+            String entrada = linea.substring(pos + 6, fin);
+            int datos = entrada.lastIndexOf(" (dur ");
+            int coma = entrada.lastIndexOf(", ");
+            if (datos != -1 && coma > datos) {
+                String nombre = entrada.substring(0, datos);
+                int duracion;
+                double precio;
+                try {
+                    duracion = Utilidades.duracionAMinutos(entrada.substring(datos + 6, coma));
+                    precio = Utilidades.cadenaAPrecio(entrada.substring(coma + 2));
+                } catch (NumberFormatException e) {
+                    informe.contarEntrada(false);
+                    informe.anotar(numLinea, "Formato de la entrada incorrecto: \"" + entrada + "\"");
+                    pos = fin + 3;
+                    continue;
+                }
+                Actividad act = catalogo.buscarActividadExacta(nombre);
+                if (act == null) {
+                    act = noCatalogadas.get(nombre);
+                }
+                if (act == null) {
+                    act = new Actividad(nombre, 0, 0);
+                    act.setDuracionMinutos(duracion);
+                    act.setPrecio(precio);
+                    noCatalogadas.put(nombre, act);
+                }
+                int resultado = viaje.agregarPlanificada(dia, act, Utilidades.horaAMinutos(hora), duracion, precio);
+                informe.contarEntrada(resultado == EXITO);
+                if (resultado == ERROR_DIA_COMPLETO) {
+                    informe.anotar(numLinea, "Día completo: se descarta " + hora + " " + nombre);
+                } else if (resultado != EXITO) {
+                    informe.anotar(numLinea, "Solapamiento: se descarta " + hora + " " + nombre);
+                }
+            } else {
+                informe.contarEntrada(false);
+                informe.anotar(numLinea, "Formato de la entrada incorrecto: \"" + entrada + "\"");
+            }
+            pos = fin + 3;
+        }
+    }
+
+    /**
+     * Comprueba si en una posición de la línea empieza una hora "HH:MM" seguida de espacio
+     * @param linea texto
+     * @param pos posición
+     * @return true si hay una hora seguida de un espacio
+     */
+    private static boolean esHora(String linea, int pos) {
+        return pos + 6 <= linea.length()
+                && Character.isDigit(linea.charAt(pos)) && Character.isDigit(linea.charAt(pos + 1))
+                && linea.charAt(pos + 2) == ':'
+                && Character.isDigit(linea.charAt(pos + 3)) && Character.isDigit(linea.charAt(pos + 4))
+                && linea.charAt(pos + 5) == ' ';
+    }
+}
\ No newline at end of file
@@ -0,0 +1,202 @@
+package es.upm;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Variante de Viaje que pueden modificar varios hilos a la vez.
+ * Cada día se guarda como una instantánea inmutable (un Viaje de un solo día) que se
+ * sustituye por copia en cada escritura bajo el cerrojo de ese día, de modo que las
+ * operaciones sobre días distintos nunca compiten entre sí.
+ * Las lecturas no toman cerrojos: leen las instantáneas publicadas y, para el viaje
+ * completo, repiten la lectura si algún escritor publicó mientras tanto.
+ * @author Kai Wei Jiang Xu, BW0067
+ */
+public class ViajeConcurrente {
+
+    private static final int MAX_REINTENTOS = 64;
+
+    private final int numDias;
+    private final int maxActividadesPorDia;
+    private final AtomicReferenceArray<Viaje> dias;
+    private final ReentrantLock[] cerrojos;
+    private final AtomicLong version;
+    private final AtomicInteger escriturasEnCurso;
+
+    /**
+     * @param numDias número de días del viaje
+     * @param maxActividades máximo de actividades por día
+     */
+    public ViajeConcurrente(int numDias, int maxActividades) {
+        this.numDias = numDias;
+        this.maxActividadesPorDia = maxActividades;
+        this.dias = new AtomicReferenceArray<>(numDias);
+        this.cerrojos = new ReentrantLock[numDias];
+        for (int d = 0; d < numDias; d++) {
+            dias.set(d, new Viaje(1, maxActividades));
+            cerrojos[d] = new ReentrantLock();
+        }
+        this.version = new AtomicLong();
+        this.escriturasEnCurso = new AtomicInteger();
+    }
+
+    /**
+     * Debuelve el valor del atributo numDias
+     * @return número total de días del viaje
+     */
+    public int getNumDias() {
+        return numDias;
+    }
+
+    /**
+     * Devuelve el valor del atributo maxActividadesPorDia
+     * @return número máximo de actividades por día
+     */
+    public int getMaxActividadesPorDia() {
+        return maxActividadesPorDia;
+    }
+
+    /**
+     * Devuelve el número de actividades planificadas en el día indicado
+     * @param dia indice del día (0 corresponde al primer día)
+     * @return número de actividades en ese día
+     */
+    public int getNumActividadesDia(int dia) {
+        if (dia < 0 || dia >= numDias) {
+            return 0;
+        }
+        return dias.get(dia).getNumActividadesDia(0);
+    }
+
+    /**
+     * Añade un actividad al día y hora indicados con las mismas reglas que
+     * Viaje.agregarActividad. Solo bloquea a otros escritores del mismo día
+     *
+     * @param dia número de día
+     * @param actividad actividad a añadir
+     * @param horaInicio hora en formato HH:MM
+     * @return código de resultado (éxito, día inválido, dia completo o solapamiento)
+     */
+    public int agregarActividad(int dia, Actividad actividad, String horaInicio) {
+        if (dia < 0 || dia >= numDias) {
+            return Viaje.ERROR_DIA_INVALIDO;
+        }
+        cerrojos[dia].lock();
+        try {
+            Viaje copia = new Viaje(dias.get(dia));
+            int resultado = copia.agregarActividad(0, actividad, horaInicio);
+            if (resultado == Viaje.EXITO) {
+                publicar(dia, copia);
+            }
+            return resultado;
+        } finally {
+            cerrojos[dia].unlock();
+        }
+    }
+
+    /**
+     * Elimina la actividad asociada al día y hora especificados, si existe.
+     * Solo bloquea a otros escritores del mismo día
+     * @param dia día del viaje
+     * @param horaInicio hora en formato HH:MM
+     * @return true si se elimina, false en caso contrario
+     */
+    public boolean eliminarActividad(int dia, String horaInicio) {
+        if (dia < 0 || dia >= numDias) {
+            return false;
+        }
+        cerrojos[dia].lock();
+        try {
+            Viaje copia = new Viaje(dias.get(dia));
+            boolean eliminado = copia.eliminarActividad(0, horaInicio);
+            if (eliminado) {
+                publicar(dia, copia);
+            }
+            return eliminado;
+        } finally {
+            cerrojos[dia].unlock();
+        }
+    }
+
+    /**
+     * Sustituye la instantánea de un día. Se llama con el cerrojo del día tomado
+     * @param dia indice del día
+     * @param copia nueva instantánea, que ya no se modifica
+     */
+    private void publicar(int dia, Viaje copia) {
+        escriturasEnCurso.incrementAndGet();
+        try {
+            dias.set(dia, copia);
+        } finally {
+            version.incrementAndGet();
+            escriturasEnCurso.decrementAndGet();
+        }
+    }
+
+    /**
+     * Devuelve las actividades de un día en orden cronológico, sin bloquear
+     * @param dia índice del día(0 corresponde al primer día)
+     * @return actividades de un día en concreto
+     */
+    public Actividad[] obtenerActividadesDia(int dia) {
+        if (dia < 0 || dia >= numDias) {
+            return null;
+        }
+        return dias.get(dia).obtenerActividadesDia(0);
+    }
+
+    /**
+     * Devuelve la hora más temprana del día en la que cabe una actividad de la
+     * duración indicada, sin bloquear
+     * @param dia indice del día (0 corresponde al primer día)
+     * @param duracionMinutos duración de la actividad en minutos
+     * @return hora en formato HH:MM o null si no hay hueco o los datos no son válidos
+     */
+    public String buscarHuecoLibre(int dia, int duracionMinutos) {
+        if (dia < 0 || dia >= numDias) {
+            return null;
+        }
+        return dias.get(dia).buscarHuecoLibre(0, duracionMinutos);
+    }
+
+    /**
+     * Devuelve una copia del viaje completo tal y como estaba en un instante, sin
+     * bloquear a los escritores. Si tras varios intentos siempre hay escrituras en
+     * curso, cada día se ve completo aunque puedan mezclarse instantes distintos
+     * @return viaje independiente con el estado de todos los días
+     */
+    public Viaje obtenerInstantanea() {
+        Viaje[] copia = new Viaje[numDias];
+        boolean coherente = false;
+        for (int intento = 0; intento < MAX_REINTENTOS && !coherente; intento++) {
+            long antes = version.get();
+            for (int d = 0; d < numDias; d++) {
+                copia[d] = dias.get(d);
+            }
+            coherente = escriturasEnCurso.get() == 0 && version.get() == antes;
+        }
+        return new Viaje(copia);
+    }
+
+    /**
+     * Genera una descripción del itinerario completo a partir de una instantánea
+     * @return texto con la planificación del viaje
+     */
+    @Override
+    public String toString() {
+        return obtenerInstantanea().toString();
+    }
+
+    /**
+     * Guarda el itinerario completo a partir de una instantánea, sin bloquear a los escritores
+     *
+     * @param nombreArchivo Nombre con el que se quiere guardar el archivo
+     * @throws IOException si hay error al escribir el archivo
+     */
+    public void guardarItinerario(String nombreArchivo) throws IOException {
+        obtenerInstantanea().guardarItinerario(nombreArchivo);
+    }
+}